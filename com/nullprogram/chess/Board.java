@@ -1,9 +1,7 @@
 package com.nullprogram.chess;
 
-import com.nullprogram.chess.boards.BoardFactory;
-import com.nullprogram.chess.pieces.King;
-import com.nullprogram.chess.pieces.PieceFactory;
 import java.io.Serializable;
+import java.util.Arrays;
 
 /**
  * Board data structure.
@@ -11,26 +9,120 @@ import java.io.Serializable;
  * After the initial setup, the board <i>must</i> only be modified
  * through move transaction. This allows undo() and copy(), which many
  * other things depends on, to work properly.
+ *
+ * Squares are numbered y * width + x. Alongside the piece array the
+ * board keeps a bitboard for each side and piece type, plus one
+ * occupancy bitboard per side. Bitboards are 128 bits wide, split
+ * into a low and a high word (see Geometry), so boards may have at
+ * most 128 squares.
+ *
+ * Internally moves are made and unmade in packed form (see
+ * PackedMove), which is what the AI search uses. Move objects passed
+ * to move() are packed on the way in.
  */
-public abstract class Board implements Serializable {
+public abstract class Board implements Serializable, Cloneable {
 
     /** Versioning for object serialization. */
     private static final long serialVersionUID = 244162996302362607L;
 
-    /** The internal board array. */
-    private Piece[][] board;
+    /** The internal board array, indexed by square. */
+    private Piece[] board;
 
     /** The size of this game board. */
     private int boardWidth, boardHeight;
 
-    /** Moves taken in this game so far. */
-    private final MoveList moves = new MoveList(this);
+    /** Bitboard tables for this board's size. */
+    private transient Geometry geometry;
+
+    /** Piece bitboards, indexed by side ordinal * TYPES + type. */
+    private long[] piecesLo, piecesHi;
+
+    /** Occupancy bitboards, indexed by side ordinal. */
+    private long[] sidesLo, sidesHi;
+
+    /** Occupancy of each line, indexed by line kind then line. */
+    private int[][] lines;
+
+    /** Squares holding each side's pieces, indexed by side ordinal. */
+    private int[][] pieceList;
+
+    /** Number of squares in each side's piece list. */
+    private int[] pieceCount;
+
+    /** Position of each occupied square within its side's piece list. */
+    private int[] listIndex;
+
+    /** Square of each side's king, or -1 for none. */
+    private int[] kingSquare;
+
+    /** Starting size of the move history. */
+    private static final int HISTORY = 256;
+
+    /** Moves taken in this game so far, packed. */
+    private int[] history = new int[HISTORY];
+
+    /** Piece captured by each move in the history, for undo. */
+    private Piece[] captures = new Piece[HISTORY];
+
+    /** Pawn replaced by each promotion in the history, for undo. */
+    private Piece[] promoted = new Piece[HISTORY];
+
+    /** Position key before each move in the history, for undo. */
+    private long[] keys = new long[HISTORY];
+
+    /** Number of moves in the history. */
+    private int ply;
+
+    /** Zobrist key of the current position (see Zobrist). */
+    private long key;
+
+    /** Zobrist key of the pawns alone. */
+    private long pawnKey;
+
+    /** Current castling rights, two bits (left, right) per side. */
+    private int castling;
+
+    /** Piece values used for scoring, or null for none. */
+    private PieceSquareTable scoring;
+
+    /** Total value of each side's pieces, indexed by side ordinal. */
+    private int[] scores = new int[2];
+
+    /** Piece types from least to most valuable, for exchange(). */
+    private static final int[] CHEAPEST = {
+        Piece.PAWN, Piece.KNIGHT, Piece.BISHOP, Piece.ROOK,
+        Piece.ARCHBISHOP, Piece.CHANCELLOR, Piece.QUEEN, Piece.KING
+    };
+
+    /** Scratch space for exchange(), one entry per capture. */
+    private int[] swap = new int[Geometry.MAX_SQUARES];
+
+    /** Scratch list for findMove(). */
+    private PackedMoveList found = new PackedMoveList();
 
     /**
      * Create a new Piece array, effectively clearing the board.
      */
     public final void clear() {
-        board = new Piece[boardWidth][boardHeight];
+        geometry = Geometry.get(boardWidth, boardHeight);
+        board = new Piece[boardWidth * boardHeight];
+        piecesLo = new long[2 * Piece.TYPES];
+        piecesHi = new long[2 * Piece.TYPES];
+        sidesLo = new long[2];
+        sidesHi = new long[2];
+        lines = new int[Geometry.LINES][];
+        for (int k = 0; k < Geometry.LINES; k++) {
+            lines[k] = new int[geometry.lineCount(k)];
+        }
+        pieceList = new int[2][boardWidth * boardHeight];
+        pieceCount = new int[2];
+        listIndex = new int[boardWidth * boardHeight];
+        kingSquare = new int[] {-1, -1};
+        key = 0;
+        pawnKey = 0;
+        castling = 0;
+        scoring = null;
+        scores = new int[2];
     }
 
     /**
@@ -91,18 +183,43 @@ public abstract class Board implements Serializable {
      * @return     the king's board position
      */
     public final Position findKing(final Piece.Side side) {
-        for (int y = 0; y < getHeight(); y++) {
-            for (int x = 0; x < getWidth(); x++) {
-                Position pos = new Position(x, y);
-                Piece p = getPiece(pos);
-                if (p instanceof King &&
-                    p.getSide() == side) {
-
-                    return pos;
-                }
-            }
+        int sq = kingSquare[side.ordinal()];
+        if (sq < 0) {
+            return null;
         }
-        return null;
+        return getPosition(sq);
+    }
+
+    /**
+     * Get the square of the king belonging to the given side.
+     *
+     * @param side whose king
+     * @return     the king's square, or -1 if there is no king
+     */
+    public final int getKingSquare(final Piece.Side side) {
+        return kingSquare[side.ordinal()];
+    }
+
+    /**
+     * Get the number of pieces the given side has on the board.
+     *
+     * @param side whose pieces
+     * @return     number of pieces
+     */
+    public final int getPieceCount(final Piece.Side side) {
+        return pieceCount[side.ordinal()];
+    }
+
+    /**
+     * Get the square of one of the given side's pieces. The order of
+     * the list changes as pieces come and go.
+     *
+     * @param side whose pieces
+     * @param i    index below getPieceCount(side)
+     * @return     square of the piece
+     */
+    public final int getPieceSquare(final Piece.Side side, final int i) {
+        return pieceList[side.ordinal()][i];
     }
 
     /**
@@ -159,11 +276,193 @@ public abstract class Board implements Serializable {
      * @param p   the piece object to be placed
      */
     public final void setPiece(final Position pos, final Piece p) {
-        board[pos.getX()][pos.getY()] = p;
+        put(square(pos), p);
+        updateCastling();
+    }
+
+    /**
+     * Put the given Piece on a square, replacing whatever was there.
+     *
+     * @param sq the square
+     * @param p  the piece, or null to empty the square
+     */
+    private void put(final int sq, final Piece p) {
+        Piece old = board[sq];
+        if (old != null) {
+            toggle(sq, old);
+            unlist(sq, old);
+            score(sq, old, -1);
+        }
         if (p != null) {
-            p.setPosition(pos);
+            toggle(sq, p);
+            list(sq, p);
+            score(sq, p, 1);
+            p.setPosition(getPosition(sq));
             p.setBoard(this);
         }
+        board[sq] = p;
+    }
+
+    /**
+     * Add or take away a piece's value from its side's score.
+     *
+     * @param sq   the square
+     * @param p    the piece entering or leaving the square
+     * @param sign 1 if entering, -1 if leaving
+     */
+    private void score(final int sq, final Piece p, final int sign) {
+        if (scoring != null) {
+            int side = p.getSide().ordinal();
+            int set = side * Piece.TYPES + p.getType();
+            scores[side] += sign * scoring.value(set, sq);
+        }
+    }
+
+    /**
+     * Score pieces with the given table from now on. Each side's score
+     * is then kept up to date by every move and undo.
+     *
+     * @param table piece values for this board's size, or null for none
+     */
+    public final void setScoring(final PieceSquareTable table) {
+        scoring = table;
+        scores = new int[2];
+        for (int sq = 0; sq < board.length; sq++) {
+            if (board[sq] != null) {
+                score(sq, board[sq], 1);
+            }
+        }
+    }
+
+    /**
+     * Get a side's score by the table given to setScoring(): the
+     * value of its pieces less that of its opponent's.
+     *
+     * @param side the side
+     * @return     the score, 0 if there is no table
+     */
+    public final int getScore(final Piece.Side side) {
+        int own = side.ordinal();
+        return scores[own] - scores[1 - own];
+    }
+
+    /**
+     * Add a square to its piece's side list.
+     *
+     * @param sq the square
+     * @param p  the piece arriving on the square
+     */
+    private void list(final int sq, final Piece p) {
+        int side = p.getSide().ordinal();
+        listIndex[sq] = pieceCount[side];
+        pieceList[side][pieceCount[side]++] = sq;
+        if (p.getType() == Piece.KING) {
+            kingSquare[side] = sq;
+        }
+    }
+
+    /**
+     * Remove a square from its piece's side list, moving the last
+     * entry into the hole. Must be called after toggle().
+     *
+     * @param sq the square
+     * @param p  the piece leaving the square
+     */
+    private void unlist(final int sq, final Piece p) {
+        int side = p.getSide().ordinal();
+        int last = pieceList[side][--pieceCount[side]];
+        pieceList[side][listIndex[sq]] = last;
+        listIndex[last] = listIndex[sq];
+        if (p.getType() == Piece.KING) {
+            /* any other king left (board editing) takes its place */
+            int set = side * Piece.TYPES + Piece.KING;
+            kingSquare[side] = Geometry.first(piecesLo[set], piecesHi[set]);
+        }
+    }
+
+    /**
+     * Flip the given piece's bits for a square in the bitboards.
+     *
+     * @param sq the square
+     * @param p  the piece entering or leaving the square
+     */
+    private void toggle(final int sq, final Piece p) {
+        int side = p.getSide().ordinal();
+        int set = side * Piece.TYPES + p.getType();
+        if (sq < Long.SIZE) {
+            long bit = 1L << sq;
+            piecesLo[set] ^= bit;
+            sidesLo[side] ^= bit;
+        } else {
+            long bit = 1L << (sq - Long.SIZE);
+            piecesHi[set] ^= bit;
+            sidesHi[side] ^= bit;
+        }
+        lift(sq);
+        key ^= Zobrist.piece(set, sq);
+        if (p.getType() == Piece.PAWN) {
+            pawnKey ^= Zobrist.piece(set, sq);
+        }
+    }
+
+    /**
+     * Get the Zobrist key of the current position. It covers piece
+     * placement, side to move, castling rights and en passant, and is
+     * kept up to date by every move and undo.
+     *
+     * @return the position key
+     */
+    public final long getKey() {
+        return key;
+    }
+
+    /**
+     * Get the Zobrist key of the pawns alone, ignoring every other
+     * piece and whose move it is. Positions with the same pawn
+     * structure share it.
+     *
+     * @return the pawn key
+     */
+    public final long getPawnKey() {
+        return pawnKey;
+    }
+
+    /**
+     * Recompute the castling rights from the kings and corner pieces
+     * and fold any change into the key.
+     */
+    private void updateCastling() {
+        int rights = 0;
+        for (int side = 0; side < 2; side++) {
+            int king = kingSquare[side];
+            if (king < 0 || board[king].moved()) {
+                continue;
+            }
+            int row = king - king % boardWidth;
+            Piece left = board[row];
+            Piece right = board[row + boardWidth - 1];
+            if (left != null && !left.moved()) {
+                rights |= 1 << (side * 2);
+            }
+            if (right != null && !right.moved()) {
+                rights |= 2 << (side * 2);
+            }
+        }
+        key ^= Zobrist.castling(castling) ^ Zobrist.castling(rights);
+        castling = rights;
+    }
+
+    /**
+     * Key for the en passant opportunity created by a move.
+     *
+     * @param move packed move, or PackedMove.NONE
+     * @return     en passant key, or 0 if the move was no double push
+     */
+    private long passantKey(final int move) {
+        if (PackedMove.flag(move) != PackedMove.DOUBLE_PUSH) {
+            return 0;
+        }
+        return Zobrist.passant(PackedMove.to(move) % boardWidth);
     }
 
     /**
@@ -173,7 +472,507 @@ public abstract class Board implements Serializable {
      * @return    the Piece at the position
      */
     public final Piece getPiece(final Position pos) {
-        return board[pos.getX()][pos.getY()];
+        return board[square(pos.getX(), pos.getY())];
+    }
+
+    /**
+     * Get the Piece on the given square.
+     *
+     * @param sq the square index
+     * @return   the Piece on the square
+     */
+    public final Piece getPiece(final int sq) {
+        return board[sq];
+    }
+
+    /**
+     * Get the square index for the given coordinates.
+     *
+     * @param x horizontal part of the position
+     * @param y vertical part of the position
+     * @return  the square index
+     */
+    public final int square(final int x, final int y) {
+        return y * boardWidth + x;
+    }
+
+    /**
+     * Get the square index for the given Position.
+     *
+     * @param pos the position on the board
+     * @return    the square index
+     */
+    public final int square(final Position pos) {
+        return pos.getY() * boardWidth + pos.getX();
+    }
+
+    /**
+     * Get the Position of the given square index.
+     *
+     * @param sq the square index
+     * @return   the position of the square
+     */
+    public final Position getPosition(final int sq) {
+        return getGeometry().position(sq);
+    }
+
+    /**
+     * Get the bitboard tables for this board's size.
+     *
+     * @return the board geometry
+     */
+    public final Geometry getGeometry() {
+        if (geometry == null) {
+            geometry = Geometry.get(boardWidth, boardHeight);
+        }
+        return geometry;
+    }
+
+    /**
+     * Get the low word of the given side's pieces of one type.
+     *
+     * @param side side owning the pieces
+     * @param type piece type index
+     * @return     set of squares holding these pieces
+     */
+    public final long getPieces(final Piece.Side side, final int type) {
+        return piecesLo[side.ordinal() * Piece.TYPES + type];
+    }
+
+    /**
+     * Get the high word of the given side's pieces of one type.
+     *
+     * @param side side owning the pieces
+     * @param type piece type index
+     * @return     set of squares holding these pieces
+     */
+    public final long getPiecesHigh(final Piece.Side side, final int type) {
+        return piecesHi[side.ordinal() * Piece.TYPES + type];
+    }
+
+    /**
+     * Get the low word of the squares occupied by the given side.
+     *
+     * @param side side owning the pieces
+     * @return     set of squares holding this side's pieces
+     */
+    public final long getOccupied(final Piece.Side side) {
+        return sidesLo[side.ordinal()];
+    }
+
+    /**
+     * Get the high word of the squares occupied by the given side.
+     *
+     * @param side side owning the pieces
+     * @return     set of squares holding this side's pieces
+     */
+    public final long getOccupiedHigh(final Piece.Side side) {
+        return sidesHi[side.ordinal()];
+    }
+
+    /**
+     * Get the low word of all occupied squares.
+     *
+     * @return set of squares holding any piece
+     */
+    public final long getOccupied() {
+        return sidesLo[0] | sidesLo[1];
+    }
+
+    /**
+     * Get the high word of all occupied squares.
+     *
+     * @return set of squares holding any piece
+     */
+    public final long getOccupiedHigh() {
+        return sidesHi[0] | sidesHi[1];
+    }
+
+    /**
+     * Get the low word of the rook attacks from a square.
+     *
+     * @param sq the square
+     * @return   attacked squares, including the first piece on each ray
+     */
+    public final long getRookAttacks(final int sq) {
+        return lineLow(Geometry.RANK, sq) | lineLow(Geometry.FILE, sq);
+    }
+
+    /**
+     * Get the high word of the rook attacks from a square.
+     *
+     * @param sq the square
+     * @return   attacked squares, including the first piece on each ray
+     */
+    public final long getRookAttacksHigh(final int sq) {
+        return lineHigh(Geometry.RANK, sq) | lineHigh(Geometry.FILE, sq);
+    }
+
+    /**
+     * Get the low word of the bishop attacks from a square.
+     *
+     * @param sq the square
+     * @return   attacked squares, including the first piece on each ray
+     */
+    public final long getBishopAttacks(final int sq) {
+        return lineLow(Geometry.DIAGONAL, sq) |
+               lineLow(Geometry.ANTI_DIAGONAL, sq);
+    }
+
+    /**
+     * Get the high word of the bishop attacks from a square.
+     *
+     * @param sq the square
+     * @return   attacked squares, including the first piece on each ray
+     */
+    public final long getBishopAttacksHigh(final int sq) {
+        return lineHigh(Geometry.DIAGONAL, sq) |
+               lineHigh(Geometry.ANTI_DIAGONAL, sq);
+    }
+
+    /**
+     * Determine if any piece of the given side attacks a square. This
+     * looks outward from the square: a knight's jump away for knights
+     * and knight compounds, a pawn capture away for pawns, and along
+     * the occupied lines for the sliders.
+     *
+     * @param sq     the square
+     * @param bySide the attacking side
+     * @return       true if the square is attacked
+     */
+    public final boolean isAttacked(final int sq, final Piece.Side bySide) {
+        Geometry g = getGeometry();
+        int base = bySide.ordinal() * Piece.TYPES;
+        long[] lo = piecesLo;
+        long[] hi = piecesHi;
+
+        long leapLo = lo[base + Piece.KNIGHT] | lo[base + Piece.CHANCELLOR] |
+                      lo[base + Piece.ARCHBISHOP];
+        long leapHi = hi[base + Piece.KNIGHT] | hi[base + Piece.CHANCELLOR] |
+                      hi[base + Piece.ARCHBISHOP];
+        if ((g.knightLow(sq) & leapLo | g.knightHigh(sq) & leapHi) != 0) {
+            return true;
+        }
+
+        /* a pawn attacks us where our pawn would attack it */
+        Piece.Side defender = Piece.opposite(bySide);
+        if ((g.pawnLow(defender, sq) & lo[base + Piece.PAWN] |
+             g.pawnHigh(defender, sq) & hi[base + Piece.PAWN]) != 0) {
+            return true;
+        }
+        if ((g.kingLow(sq) & lo[base + Piece.KING] |
+             g.kingHigh(sq) & hi[base + Piece.KING]) != 0) {
+            return true;
+        }
+
+        long rookLo = lo[base + Piece.ROOK] | lo[base + Piece.QUEEN] |
+                      lo[base + Piece.CHANCELLOR];
+        long rookHi = hi[base + Piece.ROOK] | hi[base + Piece.QUEEN] |
+                      hi[base + Piece.CHANCELLOR];
+        if ((rookLo | rookHi) != 0 &&
+            (getRookAttacks(sq) & rookLo |
+             getRookAttacksHigh(sq) & rookHi) != 0) {
+            return true;
+        }
+
+        long bishopLo = lo[base + Piece.BISHOP] | lo[base + Piece.QUEEN] |
+                        lo[base + Piece.ARCHBISHOP];
+        long bishopHi = hi[base + Piece.BISHOP] | hi[base + Piece.QUEEN] |
+                        hi[base + Piece.ARCHBISHOP];
+        return (bishopLo | bishopHi) != 0 &&
+               (getBishopAttacks(sq) & bishopLo |
+                getBishopAttacksHigh(sq) & bishopHi) != 0;
+    }
+
+    /**
+     * Static exchange evaluation: what a move wins once both sides have
+     * traded captures on its destination square, each recapturing with
+     * its least valuable piece and free to stop when going on would
+     * lose. A slider lined up behind a capturer joins in once it has
+     * gone. Pins are not considered.
+     *
+     * @param move   packed move
+     * @param values value of each piece type
+     * @return       material won, or lost if negative
+     */
+    public final int exchange(final int move, final int[] values) {
+        int from = PackedMove.from(move);
+        int to = PackedMove.to(move);
+        int[] gain = swap;
+        gain[0] = 0;
+        if (PackedMove.isCapture(move)) {
+            gain[0] = values[PackedMove.captured(move)];
+        }
+        int standing = values[PackedMove.piece(move)];
+        if (PackedMove.flag(move) == PackedMove.PROMOTION) {
+            standing = values[PackedMove.promotion(move)];
+            gain[0] += standing - values[Piece.PAWN];
+        }
+
+        /* taken pieces leave the lines, uncovering whatever is behind */
+        /* a pawn recapturing here promotes, to a queen */
+        boolean last = to < boardWidth || to >= board.length - boardWidth;
+        long goneLo = 0;
+        long goneHi = 0;
+        int sq = from;
+        int d = 0;
+        Piece.Side s = Piece.opposite(PackedMove.side(move));
+        if (PackedMove.flag(move) == PackedMove.EN_PASSANT) {
+            int passed = passantSquare(from, to);
+            if (passed < Long.SIZE) {
+                goneLo |= 1L << passed;
+            } else {
+                goneHi |= 1L << (passed - Long.SIZE);
+            }
+            lift(passed);
+        }
+        while (true) {
+            if (sq < Long.SIZE) {
+                goneLo |= 1L << sq;
+            } else {
+                goneHi |= 1L << (sq - Long.SIZE);
+            }
+            lift(sq);
+            sq = cheapest(to, s, goneLo, goneHi);
+            if (sq < 0 || board[sq].getType() == Piece.KING &&
+                cheapest(to, Piece.opposite(s), goneLo, goneHi) >= 0) {
+                /* nothing left, or only a king that can't go there */
+                break;
+            }
+            d++;
+            gain[d] = standing - gain[d - 1];
+            standing = values[board[sq].getType()];
+            if (board[sq].getType() == Piece.PAWN && last) {
+                gain[d] += values[Piece.QUEEN] - standing;
+                standing = values[Piece.QUEEN];
+            }
+            s = Piece.opposite(s);
+        }
+
+        /* put the lines back */
+        for (long lo = goneLo; lo != 0; lo &= lo - 1) {
+            lift(Long.numberOfTrailingZeros(lo));
+        }
+        for (long hi = goneHi; hi != 0; hi &= hi - 1) {
+            lift(Long.SIZE + Long.numberOfTrailingZeros(hi));
+        }
+
+        /* each side stops where carrying on would do worse */
+        for (; d > 0; d--) {
+            gain[d - 1] = -Math.max(-gain[d - 1], gain[d]);
+        }
+        return gain[0];
+    }
+
+    /**
+     * Find a side's least valuable piece attacking a square, ignoring
+     * the given pieces.
+     *
+     * @param sq     the square
+     * @param s      the attacking side
+     * @param goneLo low word of the pieces to ignore
+     * @param goneHi high word of the pieces to ignore
+     * @return       square of the attacker, or -1 if there is none
+     */
+    private int cheapest(final int sq, final Piece.Side s, final long goneLo,
+                         final long goneHi) {
+        Geometry g = getGeometry();
+        int base = s.ordinal() * Piece.TYPES;
+        Piece.Side defender = Piece.opposite(s);
+        for (int type : CHEAPEST) {
+            long lo = piecesLo[base + type] & ~goneLo;
+            long hi = piecesHi[base + type] & ~goneHi;
+            if ((lo | hi) == 0) {
+                continue;
+            }
+            switch (type) {
+            case Piece.PAWN:
+                lo &= g.pawnLow(defender, sq);
+                hi &= g.pawnHigh(defender, sq);
+                break;
+            case Piece.KNIGHT:
+                lo &= g.knightLow(sq);
+                hi &= g.knightHigh(sq);
+                break;
+            case Piece.BISHOP:
+                lo &= getBishopAttacks(sq);
+                hi &= getBishopAttacksHigh(sq);
+                break;
+            case Piece.ROOK:
+                lo &= getRookAttacks(sq);
+                hi &= getRookAttacksHigh(sq);
+                break;
+            case Piece.ARCHBISHOP:
+                lo &= getBishopAttacks(sq) | g.knightLow(sq);
+                hi &= getBishopAttacksHigh(sq) | g.knightHigh(sq);
+                break;
+            case Piece.CHANCELLOR:
+                lo &= getRookAttacks(sq) | g.knightLow(sq);
+                hi &= getRookAttacksHigh(sq) | g.knightHigh(sq);
+                break;
+            case Piece.QUEEN:
+                lo &= getRookAttacks(sq) | getBishopAttacks(sq);
+                hi &= getRookAttacksHigh(sq) | getBishopAttacksHigh(sq);
+                break;
+            default:
+                lo &= g.kingLow(sq);
+                hi &= g.kingHigh(sq);
+                break;
+            }
+            if ((lo | hi) != 0) {
+                return Geometry.first(lo, hi);
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Flip a square's bits in the line occupancies, lifting a piece
+     * off the lines or setting it back down.
+     *
+     * @param sq the square
+     */
+    private void lift(final int sq) {
+        Geometry g = getGeometry();
+        for (int k = 0; k < Geometry.LINES; k++) {
+            lines[k][g.lineOf(k, sq)] ^= g.lineBit(k, sq);
+        }
+    }
+
+    /**
+     * Count the moves a side's pieces have, without generating them:
+     * each piece's attacks on squares its side doesn't hold, and each
+     * pawn's pushes and captures. Castling and en passant are left
+     * out, and legality is not checked.
+     *
+     * @param side the side
+     * @return     number of moves
+     */
+    public final int mobility(final Piece.Side side) {
+        int s = side.ordinal();
+        int count = 0;
+        for (int i = 0; i < pieceCount[s]; i++) {
+            int sq = pieceList[s][i];
+            long lo = attacksLow(sq);
+            long hi = attacksHigh(sq);
+            if (board[sq].getType() == Piece.PAWN) {
+                lo &= sidesLo[1 - s];
+                hi &= sidesHi[1 - s];
+                count += pushes(sq, side);
+            }
+            count += Long.bitCount(lo & ~sidesLo[s]) +
+                     Long.bitCount(hi & ~sidesHi[s]);
+        }
+        return count;
+    }
+
+    /**
+     * Get the low word of the squares the piece on a square attacks.
+     * For a pawn these are its capture squares, whether or not there
+     * is anything to capture.
+     *
+     * @param sq square of the piece
+     * @return   attacked squares, including the first piece on each ray
+     */
+    private long attacksLow(final int sq) {
+        Geometry g = getGeometry();
+        Piece p = board[sq];
+        switch (p.getType()) {
+        case Piece.PAWN:
+            return g.pawnLow(p.getSide(), sq);
+        case Piece.KNIGHT:
+            return g.knightLow(sq);
+        case Piece.BISHOP:
+            return getBishopAttacks(sq);
+        case Piece.ROOK:
+            return getRookAttacks(sq);
+        case Piece.QUEEN:
+            return getRookAttacks(sq) | getBishopAttacks(sq);
+        case Piece.KING:
+            return g.kingLow(sq);
+        case Piece.CHANCELLOR:
+            return getRookAttacks(sq) | g.knightLow(sq);
+        case Piece.ARCHBISHOP:
+            return getBishopAttacks(sq) | g.knightLow(sq);
+        default:
+            return 0;
+        }
+    }
+
+    /**
+     * Get the high word of the squares the piece on a square attacks.
+     *
+     * @param sq square of the piece
+     * @return   attacked squares, including the first piece on each ray
+     */
+    private long attacksHigh(final int sq) {
+        Geometry g = getGeometry();
+        Piece p = board[sq];
+        switch (p.getType()) {
+        case Piece.PAWN:
+            return g.pawnHigh(p.getSide(), sq);
+        case Piece.KNIGHT:
+            return g.knightHigh(sq);
+        case Piece.BISHOP:
+            return getBishopAttacksHigh(sq);
+        case Piece.ROOK:
+            return getRookAttacksHigh(sq);
+        case Piece.QUEEN:
+            return getRookAttacksHigh(sq) | getBishopAttacksHigh(sq);
+        case Piece.KING:
+            return g.kingHigh(sq);
+        case Piece.CHANCELLOR:
+            return getRookAttacksHigh(sq) | g.knightHigh(sq);
+        case Piece.ARCHBISHOP:
+            return getBishopAttacksHigh(sq) | g.knightHigh(sq);
+        default:
+            return 0;
+        }
+    }
+
+    /**
+     * Count the pushes open to a pawn: one or two squares ahead.
+     *
+     * @param sq   square of the pawn
+     * @param side side of the pawn
+     * @return     number of pushes
+     */
+    private int pushes(final int sq, final Piece.Side side) {
+        int dir = side.value() * boardWidth;
+        int ahead = sq + dir;
+        if (ahead < 0 || ahead >= board.length || board[ahead] != null) {
+            return 0;
+        }
+        int twoAhead = ahead + dir;
+        if (board[sq].moved() || twoAhead < 0 || twoAhead >= board.length ||
+            board[twoAhead] != null) {
+            return 1;
+        }
+        return 2;
+    }
+
+    /**
+     * Look up the low word of the attacks along one line.
+     *
+     * @param k  line kind
+     * @param sq the square
+     * @return   attacked squares on the line
+     */
+    private long lineLow(final int k, final int sq) {
+        Geometry g = getGeometry();
+        return g.lineLow(k, sq, lines[k][g.lineOf(k, sq)]);
+    }
+
+    /**
+     * Look up the high word of the attacks along one line.
+     *
+     * @param k  line kind
+     * @param sq the square
+     * @return   attacked squares on the line
+     */
+    private long lineHigh(final int k, final int sq) {
+        Geometry g = getGeometry();
+        return g.lineHigh(k, sq, lines[k][g.lineOf(k, sq)]);
     }
 
     /**
@@ -182,66 +981,155 @@ public abstract class Board implements Serializable {
      * @param move the move
      */
     public final void move(final Move move) {
-        moves.add(move);
-        execMove(move);
+        makeMove(PackedMove.encode(this, move));
     }
 
     /**
-     * Actually execute the move.
+     * Perform the given packed move.
      *
-     * @param move the move
+     * @param move the packed move
      */
-    private void execMove(final Move move) {
-        if (move == null) {
-            return;
+    public final void makeMove(final int move) {
+        if (ply == history.length) {
+            growHistory();
         }
-        Position a = move.getOrigin();
-        Position b = move.getDest();
-        if (a != null && b != null) {
-            move.setCaptured(getPiece(b));
-            setPiece(b, getPiece(a));
-            setPiece(a, null);
-            getPiece(b).setPosition(b);
-            getPiece(b).incMoved();
-        } else if (a != null && b == null) {
-            move.setCaptured(getPiece(a));
-            setPiece(a, null);
-        } else {
-            setPiece(b, PieceFactory.create(move.getReplacement(),
-                                            move.getReplacementSide()));
+        keys[ply] = key;
+        int from = PackedMove.from(move);
+        int to = PackedMove.to(move);
+        int flag = PackedMove.flag(move);
+        Piece p = board[from];
+        Piece captured = board[to];
+        if (flag == PackedMove.EN_PASSANT) {
+            int sq = passantSquare(from, to);
+            captured = board[sq];
+            put(sq, null);
+        } else if (flag == PackedMove.CASTLE) {
+            int rookFrom = castleRookFrom(from, to);
+            Piece rook = board[rookFrom];
+            put(rookFrom, null);
+            put(castleRookTo(from, to), rook);
+            rook.incMoved();
+        }
+        put(from, null);
+        put(to, p);
+        p.incMoved();
+        if (flag == PackedMove.PROMOTION) {
+            promoted[ply] = p;
+            put(to, PackedMove.promote(move));
         }
-        execMove(move.getNext());
+        captures[ply] = captured;
+        key ^= Zobrist.side() ^ passantKey(lastMove()) ^ passantKey(move);
+        history[ply++] = move;
+        updateCastling();
+    }
+
+    /**
+     * Double the size of the history stacks.
+     */
+    private void growHistory() {
+        history = Arrays.copyOf(history, ply * 2);
+        captures = Arrays.copyOf(captures, ply * 2);
+        promoted = Arrays.copyOf(promoted, ply * 2);
+        keys = Arrays.copyOf(keys, ply * 2);
+    }
+
+    /**
+     * Pass the turn without moving (a "null move"), for null-move
+     * pruning in the search. It must be undone with unmakeNullMove()
+     * before any regular undo.
+     */
+    public final void makeNullMove() {
+        if (ply == history.length) {
+            growHistory();
+        }
+        keys[ply] = key;
+        key ^= Zobrist.side() ^ passantKey(lastMove());
+        history[ply++] = PackedMove.NONE;
+    }
+
+    /**
+     * Take back a null move.
+     */
+    public final void unmakeNullMove() {
+        ply--;
+        key = keys[ply];
     }
 
     /**
      * Undo the last move.
      */
     public final void undo() {
-        execUndo(moves.pop());
+        if (ply > 0) {
+            unmakeMove();
+        }
     }
 
     /**
-     * Actually perform the undo action.
-     *
-     * @param move the move
+     * Undo the last move, which must exist.
      */
-    private void execUndo(final Move move) {
-        if (move == null) {
-            return;
+    public final void unmakeMove() {
+        ply--;
+        int move = history[ply];
+        int from = PackedMove.from(move);
+        int to = PackedMove.to(move);
+        int flag = PackedMove.flag(move);
+        Piece p = board[to];
+        if (flag == PackedMove.PROMOTION) {
+            p = promoted[ply];
+            promoted[ply] = null;
         }
-        execUndo(move.getNext()); // undo in reverse
-        Position a = move.getOrigin();
-        Position b = move.getDest();
-        if (a != null && b != null) {
-            setPiece(a, getPiece(b));
-            setPiece(b, move.getCaptured());
-            getPiece(a).setPosition(a);
-            getPiece(a).decMoved();
-        } else if (a != null && b == null) {
-            setPiece(a, move.getCaptured());
+        put(to, null);
+        put(from, p);
+        p.decMoved();
+        if (flag == PackedMove.EN_PASSANT) {
+            put(passantSquare(from, to), captures[ply]);
+        } else if (flag == PackedMove.CASTLE) {
+            int rookTo = castleRookTo(from, to);
+            Piece rook = board[rookTo];
+            put(rookTo, null);
+            put(castleRookFrom(from, to), rook);
+            rook.decMoved();
         } else {
-            setPiece(b, null);
+            put(to, captures[ply]);
         }
+        captures[ply] = null;
+        updateCastling();
+        key = keys[ply];
+    }
+
+    /**
+     * Square of the rook taking part in a castling move.
+     *
+     * @param from the king's origin square
+     * @param to   the king's destination square
+     * @return     the rook's origin square
+     */
+    public final int castleRookFrom(final int from, final int to) {
+        int row = from - from % boardWidth;
+        return to > from ? row + boardWidth - 1 : row;
+    }
+
+    /**
+     * Square the rook lands on in a castling move: beside the king, on
+     * the side it came from.
+     *
+     * @param from the king's origin square
+     * @param to   the king's destination square
+     * @return     the rook's destination square
+     */
+    public final int castleRookTo(final int from, final int to) {
+        return to > from ? to - 1 : to + 1;
+    }
+
+    /**
+     * Square of the pawn captured by an en passant move.
+     *
+     * @param from the capturing pawn's origin square
+     * @param to   the capturing pawn's destination square
+     * @return     square of the captured pawn
+     */
+    public final int passantSquare(final int from, final int to) {
+        return from - from % boardWidth + to % boardWidth;
     }
 
     /**
@@ -250,7 +1138,22 @@ public abstract class Board implements Serializable {
      * @return the previous move
      */
     public final Move last() {
-        return moves.peek();
+        if (ply == 0) {
+            return null;
+        }
+        return PackedMove.toMove(this, history[ply - 1]);
+    }
+
+    /**
+     * Return the last move made, packed.
+     *
+     * @return the previous move, or PackedMove.NONE
+     */
+    public final int lastMove() {
+        if (ply == 0) {
+            return PackedMove.NONE;
+        }
+        return history[ply - 1];
     }
 
     /**
@@ -311,18 +1214,65 @@ public abstract class Board implements Serializable {
     }
 
     /**
-     * Copy this board.
+     * Copy this board. The copy is a snapshot of the current state,
+     * pieces and undo stack included, so it costs the same no matter
+     * how long the game has been going.
      *
      * @return deep copy of the board.
      */
     public final Board copy() {
-        Board fresh = BoardFactory.create(this.getClass());
-        for (Move move : moves) {
-            fresh.move(new Move(move));
+        Board fresh;
+        try {
+            fresh = (Board) clone();
+        } catch (CloneNotSupportedException e) {
+            throw new IllegalStateException(e);
+        }
+        fresh.board = new Piece[board.length];
+        for (int sq = 0; sq < board.length; sq++) {
+            fresh.board[sq] = fresh.adopt(board[sq]);
+        }
+        fresh.piecesLo = piecesLo.clone();
+        fresh.piecesHi = piecesHi.clone();
+        fresh.sidesLo = sidesLo.clone();
+        fresh.sidesHi = sidesHi.clone();
+        fresh.lines = new int[lines.length][];
+        for (int k = 0; k < lines.length; k++) {
+            fresh.lines[k] = lines[k].clone();
+        }
+        fresh.pieceList = new int[][] {pieceList[0].clone(),
+                                       pieceList[1].clone()};
+        fresh.pieceCount = pieceCount.clone();
+        fresh.listIndex = listIndex.clone();
+        fresh.kingSquare = kingSquare.clone();
+        fresh.scores = scores.clone();
+        fresh.swap = new int[swap.length];
+        fresh.found = new PackedMoveList();
+        fresh.history = history.clone();
+        fresh.keys = keys.clone();
+        fresh.captures = new Piece[captures.length];
+        fresh.promoted = new Piece[promoted.length];
+        for (int i = 0; i < ply; i++) {
+            fresh.captures[i] = fresh.adopt(captures[i]);
+            fresh.promoted[i] = fresh.adopt(promoted[i]);
         }
         return fresh;
     }
 
+    /**
+     * Copy a piece from another board onto this one.
+     *
+     * @param p the piece, or null
+     * @return  a copy belonging to this board, or null
+     */
+    private Piece adopt(final Piece p) {
+        if (p == null) {
+            return null;
+        }
+        Piece copy = p.copy();
+        copy.setBoard(this);
+        return copy;
+    }
+
     /**
      * Generate a list of all moves for the given side.
      *
@@ -331,24 +1281,329 @@ public abstract class Board implements Serializable {
      * @return      list of all moves
      */
     public final MoveList allMoves(final Piece.Side side, final boolean check) {
-        MoveList list = new MoveList(this, false);
-        for (int y = 0; y < boardHeight; y++) {
-            for (int x = 0; x < boardWidth; x++) {
-                Piece p = board[x][y];
-                if (p != null && p.getSide() == side) {
-                    list.addAll(p.getMoves(check));
-                }
-            }
+        PackedMoveList packed = new PackedMoveList();
+        generate(side, packed, check);
+        MoveList list = new MoveList();
+        for (int i = 0; i < packed.size(); i++) {
+            list.add(PackedMove.toMove(this, packed.get(i)));
         }
         return list;
     }
 
+    /**
+     * Append all packed moves for the given side to a list.
+     *
+     * @param side  side to get moves for
+     * @param list  list to be appended to
+     * @param check check for check
+     */
+    public final void generate(final Piece.Side side,
+                               final PackedMoveList list,
+                               final boolean check) {
+        int start = list.size();
+        addMoves(side, list, check);
+        if (check) {
+            retainLegal(list, start, side);
+        }
+    }
+
+    /**
+     * Append all pseudo-legal packed moves for the given side to a
+     * list: every move, castling included, without testing whether it
+     * leaves the mover in check. The caller tests each move it
+     * actually plays, after making it, with check(). Moves the caller
+     * never gets to (alpha-beta cutoffs) are never tested.
+     *
+     * @param side side to get moves for
+     * @param list list to be appended to
+     */
+    public final void generatePseudo(final Piece.Side side,
+                                     final PackedMoveList list) {
+        addMoves(side, list, true);
+    }
+
+    /**
+     * Append the pseudo-legal captures and promotions for the given
+     * side to a list, en passant included. Together with
+     * generateQuiets() this makes up generatePseudo(), for a search
+     * that wants to try captures before it has paid for the rest.
+     *
+     * @param side side to get moves for
+     * @param list list to be appended to
+     */
+    public final void generateCaptures(final Piece.Side side,
+                                       final PackedMoveList list) {
+        int s = side.ordinal();
+        for (int i = 0; i < pieceCount[s]; i++) {
+            int sq = pieceList[s][i];
+            long lo = attacksLow(sq) & sidesLo[1 - s];
+            long hi = attacksHigh(sq) & sidesHi[1 - s];
+            if (board[sq].getType() != Piece.PAWN) {
+                addTargets(list, sq, lo, hi);
+                continue;
+            }
+            for (; lo != 0; lo &= lo - 1) {
+                addPawnMove(list, sq, Long.numberOfTrailingZeros(lo));
+            }
+            for (; hi != 0; hi &= hi - 1) {
+                addPawnMove(list, sq,
+                            Long.SIZE + Long.numberOfTrailingZeros(hi));
+            }
+            int ahead = sq + side.value() * boardWidth;
+            if (promotes(ahead, side) && board[ahead] == null) {
+                addPawnMove(list, sq, ahead);
+            }
+            addPassant(list, sq, side);
+        }
+    }
+
+    /**
+     * Append the pseudo-legal moves for the given side that neither
+     * capture nor promote to a list, castling included.
+     *
+     * @param side side to get moves for
+     * @param list list to be appended to
+     */
+    public final void generateQuiets(final Piece.Side side,
+                                     final PackedMoveList list) {
+        int s = side.ordinal();
+        long emptyLo = ~(sidesLo[0] | sidesLo[1]);
+        long emptyHi = ~(sidesHi[0] | sidesHi[1]);
+        for (int i = 0; i < pieceCount[s]; i++) {
+            int sq = pieceList[s][i];
+            switch (board[sq].getType()) {
+            case Piece.PAWN:
+                addPushes(list, sq, side);
+                break;
+            case Piece.KING:
+                addKingQuiets(list, sq);
+                break;
+            default:
+                addTargets(list, sq, attacksLow(sq) & emptyLo,
+                           attacksHigh(sq) & emptyHi);
+                break;
+            }
+        }
+    }
+
+    /**
+     * Append a pawn's pushes that don't promote.
+     *
+     * @param list list to be appended to
+     * @param sq   square of the pawn
+     * @param side side of the pawn
+     */
+    private void addPushes(final PackedMoveList list, final int sq,
+                           final Piece.Side side) {
+        int dir = side.value() * boardWidth;
+        int n = pushes(sq, side);
+        if (n > 0 && !promotes(sq + dir, side)) {
+            addMove(list, board[sq], sq, sq + dir);
+            if (n > 1) {
+                list.add(PackedMove.create(sq, sq + 2 * dir, board[sq], -1,
+                                           PackedMove.DOUBLE_PUSH, 0));
+            }
+        }
+    }
+
+    /**
+     * Append a king's steps to empty squares and its castling moves.
+     * The castling rules live with the king, so this keeps the quiet
+     * ones of all its moves.
+     *
+     * @param list list to be appended to
+     * @param sq   square of the king
+     */
+    private void addKingQuiets(final PackedMoveList list, final int sq) {
+        int start = list.size();
+        board[sq].generate(list, true);
+        int kept = start;
+        for (int i = start; i < list.size(); i++) {
+            if (!PackedMove.isCapture(list.get(i))) {
+                list.set(kept++, list.get(i));
+            }
+        }
+        list.truncate(kept);
+    }
+
+    /**
+     * Find the pseudo-legal move between two squares, for a move known
+     * only by its squares (see TranspositionTable). Castling counts.
+     *
+     * @param side side to move
+     * @param from origin square
+     * @param to   destination square
+     * @return     the packed move, or PackedMove.NONE if there is none
+     */
+    public final int findMove(final Piece.Side side, final int from,
+                              final int to) {
+        if (from >= board.length || board[from] == null ||
+            board[from].getSide() != side) {
+            return PackedMove.NONE;
+        }
+        found.clear();
+        board[from].generate(found, true);
+        for (int i = 0; i < found.size(); i++) {
+            if (PackedMove.to(found.get(i)) == to) {
+                return found.get(i);
+            }
+        }
+        return PackedMove.NONE;
+    }
+
+    /**
+     * Determine if a packed move, perhaps remembered from another
+     * position, could be played here, ignoring check.
+     *
+     * @param move packed move
+     * @return     true if the move is pseudo-legal
+     */
+    public final boolean isPseudoLegal(final int move) {
+        return move != PackedMove.NONE &&
+               findMove(PackedMove.side(move), PackedMove.from(move),
+                        PackedMove.to(move)) == move;
+    }
+
+    /**
+     * Determine if a pawn of the given side promotes on a square.
+     *
+     * @param sq   the square, which may be off the board
+     * @param side side of the pawn
+     * @return     true if the square is on its last row
+     */
+    private boolean promotes(final int sq, final Piece.Side side) {
+        if (side == Piece.Side.WHITE) {
+            return sq >= board.length - boardWidth && sq < board.length;
+        }
+        return sq >= 0 && sq < boardWidth;
+    }
+
+    /**
+     * Append a pawn's step or capture, promoting to a queen if it
+     * reaches the last row.
+     *
+     * @param list list to be appended to
+     * @param from square of the pawn
+     * @param to   destination square
+     */
+    private void addPawnMove(final PackedMoveList list, final int from,
+                             final int to) {
+        Piece p = board[from];
+        if (!promotes(to, p.getSide())) {
+            addMove(list, p, from, to);
+            return;
+        }
+        Piece target = board[to];
+        int captured = target == null ? -1 : target.getType();
+        list.add(PackedMove.create(from, to, p, captured,
+                                   PackedMove.PROMOTION, Piece.QUEEN));
+    }
+
+    /**
+     * Append a pawn's en passant capture, if the last move allows one.
+     *
+     * @param list list to be appended to
+     * @param sq   square of the pawn
+     * @param side side of the pawn
+     */
+    private void addPassant(final PackedMoveList list, final int sq,
+                            final Piece.Side side) {
+        int last = lastMove();
+        if (PackedMove.flag(last) != PackedMove.DOUBLE_PUSH ||
+            PackedMove.side(last) == side) {
+            return;
+        }
+        int passed = PackedMove.to(last);
+        if (passed / boardWidth == sq / boardWidth &&
+            Math.abs(passed % boardWidth - sq % boardWidth) == 1) {
+            list.add(PackedMove.create(sq,
+                                       passed + side.value() * boardWidth,
+                                       board[sq], Piece.PAWN,
+                                       PackedMove.EN_PASSANT, 0));
+        }
+    }
+
+    /**
+     * Append the moves of each piece of the given side.
+     *
+     * @param side   side to get moves for
+     * @param list   list to be appended to
+     * @param castle include castling
+     */
+    private void addMoves(final Piece.Side side, final PackedMoveList list,
+                          final boolean castle) {
+        int[] squares = pieceList[side.ordinal()];
+        int count = pieceCount[side.ordinal()];
+        for (int i = 0; i < count; i++) {
+            board[squares[i]].generate(list, castle);
+        }
+    }
+
+    /**
+     * Remove the moves that would leave the mover in check.
+     *
+     * @param list  list of packed moves
+     * @param start index of the first move to test
+     * @param side  side making the moves
+     */
+    public final void retainLegal(final PackedMoveList list, final int start,
+                                  final Piece.Side side) {
+        int kept = start;
+        for (int i = start; i < list.size(); i++) {
+            int move = list.get(i);
+            makeMove(move);
+            if (!check(side)) {
+                list.set(kept++, move);
+            }
+            unmakeMove();
+        }
+        list.truncate(kept);
+    }
+
+    /**
+     * Append a packed move from a square to each square of a bitboard.
+     * The targets must already exclude squares held by the moving side.
+     *
+     * @param list list to be appended to
+     * @param from square of the moving piece
+     * @param lo   low word of the target squares
+     * @param hi   high word of the target squares
+     */
+    public final void addTargets(final PackedMoveList list, final int from,
+                                 final long lo, final long hi) {
+        Piece p = board[from];
+        for (long bits = lo; bits != 0; bits &= bits - 1) {
+            addMove(list, p, from, Long.numberOfTrailingZeros(bits));
+        }
+        for (long bits = hi; bits != 0; bits &= bits - 1) {
+            int to = Long.SIZE + Long.numberOfTrailingZeros(bits);
+            addMove(list, p, from, to);
+        }
+    }
+
+    /**
+     * Append an ordinary packed move, capturing whatever is at the
+     * destination.
+     *
+     * @param list list to be appended to
+     * @param p    the moving piece
+     * @param from origin square
+     * @param to   destination square
+     */
+    private void addMove(final PackedMoveList list, final Piece p,
+                         final int from, final int to) {
+        Piece target = board[to];
+        int captured = target == null ? -1 : target.getType();
+        list.add(PackedMove.create(from, to, p, captured,
+                                   PackedMove.NORMAL, 0));
+    }
+
     /**
      * Return the number of moves taken on this board.
      *
      * @return number of moves taken on this board
      */
     public final int moveCount() {
-        return moves.size();
+        return ply;
     }
 }
@@ -49,6 +49,9 @@ public class Game implements Runnable {
     /** Weighting of old value in timing estimates. */
     private static final double ALPHA = 0.4;
 
+    /** Thread running this game, so it can be interrupted. */
+    private volatile Thread thread;
+
     /** Set to true when the board is in a completed state. */
     private volatile Boolean done = false;
 
@@ -93,6 +96,11 @@ public class Game implements Runnable {
         listeners.clear();
         winner = null;
         done = true;
+        /* wake up a player still thinking, so it can stop */
+        Thread running = thread;
+        if (running != null && running != Thread.currentThread()) {
+            running.interrupt();
+        }
     }
 
     /**
@@ -102,7 +110,8 @@ public class Game implements Runnable {
         done = false;
         turn = Piece.Side.BLACK;
         callGameListeners(GameEvent.TURN);
-        new Thread(this).start();
+        thread = new Thread(this);
+        thread.start();
     }
 
     @Override
@@ -122,13 +131,13 @@ public class Game implements Runnable {
 
             /* Fetch the move from the player. */
             Move move = player.takeTurn(getBoard(), turn);
-            board.move(move);
-            setProgress(0);
             if (done) {
                 /* Game may have ended abruptly during the player's
                  * potentially lengthy turn. */
                 return;
             }
+            board.move(move);
+            setProgress(0);
 
             /* Check for the end of the game. */
             Piece.Side opp = Piece.opposite(turn);
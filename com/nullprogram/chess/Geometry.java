@@ -0,0 +1,509 @@
+package com.nullprogram.chess;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Precomputed bitboard tables for one board size.
+ *
+ * A bitboard is a pair of longs: the low word holds squares 0 through
+ * 63 and the high word holds squares 64 through 127. This is enough
+ * for the 10x8 Gothic board as well as the standard one. Tables are
+ * kept as parallel low/high arrays indexed by square, and are built
+ * once per board size and then shared by every board of that size.
+ *
+ * Sliding attacks use one lookup table per line through each square
+ * (rank, file, diagonal and anti-diagonal). The board keeps the
+ * occupancy of every line as a small int, one bit per square along
+ * the line, so the inner bits of that int index the table directly:
+ * a perfect hash of the relevant occupancy, in the spirit of PEXT
+ * or rotated bitboards, which works for any board width.
+ */
+public final class Geometry {
+
+    /** The most squares a bitboard can hold. */
+    public static final int MAX_SQUARES = 128;
+
+    /**
+     * The widest board supported. A rank's attack tables double in
+     * size with every square it is long.
+     */
+    public static final int MAX_WIDTH = 16;
+
+    /** Every geometry built so far, keyed by width and height. */
+    private static final Map<Integer, Geometry> CACHE =
+        new HashMap<Integer, Geometry>();
+
+    /** Knight offsets, as x/y pairs. */
+    private static final int[][] KNIGHT = {
+        {1, 2}, {2, 1}, {-2, 1}, {-2, -1}, {2, -1}, {1, -2}, {-1, -2},
+        {-1, 2}
+    };
+
+    /** Line kind for ranks. */
+    public static final int RANK = 0;
+
+    /** Line kind for files. */
+    public static final int FILE = 1;
+
+    /** Line kind for diagonals (up and to the right). */
+    public static final int DIAGONAL = 2;
+
+    /** Line kind for anti-diagonals (up and to the left). */
+    public static final int ANTI_DIAGONAL = 3;
+
+    /** Number of line kinds. */
+    public static final int LINES = 4;
+
+    /** Step along each kind of line, as x/y pairs. */
+    private static final int[][] LINE_STEP = {
+        {1, 0}, {0, 1}, {1, 1}, {-1, 1}
+    };
+
+    /** Largest file shift handled by the wrap masks. */
+    private static final int MAX_SHIFT = 2;
+
+    /** The board width. */
+    private final int width;
+
+    /** The board height. */
+    private final int height;
+
+    /** Shared Position object for each square. */
+    private final Position[] positions;
+
+    /**
+     * Wrap masks, indexed by file shift + MAX_SHIFT: after shifting a
+     * set sideways by dx files, these clear the squares that wrapped
+     * around from the opposite edge of the board, along with anything
+     * shifted past the last square.
+     */
+    private final long[] wrapLo, wrapHi;
+
+    /** Knight attacks from each square. */
+    private final long[] knightLo, knightHi;
+
+    /** King attacks from each square. */
+    private final long[] kingLo, kingHi;
+
+    /** Pawn captures from each square, indexed by side ordinal. */
+    private final long[][] pawnLo, pawnHi;
+
+    /** Number of lines of each kind. */
+    private final int[] lineCount;
+
+    /** The line through each square, indexed by line kind. */
+    private final int[][] lineOf;
+
+    /** Bit of each square within its line, indexed by line kind. */
+    private final int[][] lineBit;
+
+    /** Shift and mask taking a line's occupancy to a table index. */
+    private final int[][] lineMask;
+
+    /** Attacks along a line, indexed by kind, square, then occupancy. */
+    private final long[][][] lineLo, lineHi;
+
+    /**
+     * Build the tables for a board of the given size.
+     *
+     * @param w board width
+     * @param h board height
+     */
+    private Geometry(final int w, final int h) {
+        width = w;
+        height = h;
+        int size = w * h;
+        positions = new Position[size];
+        for (int sq = 0; sq < size; sq++) {
+            positions[sq] = new Position(sq % w, sq / w);
+        }
+
+        wrapLo = new long[MAX_SHIFT * 2 + 1];
+        wrapHi = new long[MAX_SHIFT * 2 + 1];
+        for (int dx = -MAX_SHIFT; dx <= MAX_SHIFT; dx++) {
+            for (int sq = 0; sq < size; sq++) {
+                int x = sq % w;
+                if (x + dx >= 0 && x + dx < w) {
+                    setBit(wrapLo, wrapHi, dx + MAX_SHIFT, sq + dx);
+                }
+            }
+        }
+
+        knightLo = new long[size];
+        knightHi = new long[size];
+        kingLo = new long[size];
+        kingHi = new long[size];
+        pawnLo = new long[2][size];
+        pawnHi = new long[2][size];
+        for (int sq = 0; sq < size; sq++) {
+            long lo = sq < Long.SIZE ? 1L << sq : 0;
+            long hi = sq < Long.SIZE ? 0 : 1L << (sq - Long.SIZE);
+            for (int[] d : KNIGHT) {
+                knightLo[sq] |= stepLow(lo, hi, d[0], d[1]);
+                knightHi[sq] |= stepHigh(lo, hi, d[0], d[1]);
+            }
+            for (int dy = -1; dy <= 1; dy++) {
+                for (int dx = -1; dx <= 1; dx++) {
+                    if (dx != 0 || dy != 0) {
+                        kingLo[sq] |= stepLow(lo, hi, dx, dy);
+                        kingHi[sq] |= stepHigh(lo, hi, dx, dy);
+                    }
+                }
+            }
+            for (Piece.Side side : Piece.Side.values()) {
+                int s = side.ordinal();
+                int dy = side.value();
+                pawnLo[s][sq] = stepLow(lo, hi, -1, dy) |
+                                stepLow(lo, hi, 1, dy);
+                pawnHi[s][sq] = stepHigh(lo, hi, -1, dy) |
+                                stepHigh(lo, hi, 1, dy);
+            }
+        }
+
+        lineCount = new int[] {h, w, w + h - 1, w + h - 1};
+        lineOf = new int[LINES][size];
+        lineBit = new int[LINES][size];
+        lineMask = new int[LINES][size];
+        lineLo = new long[LINES][size][];
+        lineHi = new long[LINES][size][];
+        for (int sq = 0; sq < size; sq++) {
+            int x = sq % w;
+            int y = sq / w;
+            int[] pos = {x, y, Math.min(x, y), Math.min(y, w - 1 - x)};
+            int[] line = {y, x, x - y + h - 1, x + y};
+            for (int k = 0; k < LINES; k++) {
+                lineOf[k][sq] = line[k];
+                lineBit[k][sq] = 1 << pos[k];
+                int len = pos[k] + 1 + run(x, y, k, 1);
+                int inner = Math.max(len - 2, 0);
+                lineMask[k][sq] = (1 << inner) - 1;
+                lineLo[k][sq] = new long[1 << inner];
+                lineHi[k][sq] = new long[1 << inner];
+                for (int occ = 0; occ < 1 << inner; occ++) {
+                    /* Table indexes skip the line's two end squares. */
+                    int bits = occ << 1;
+                    fillLine(k, sq, pos[k], bits, 1);
+                    fillLine(k, sq, pos[k], bits, -1);
+                }
+            }
+        }
+    }
+
+    /**
+     * Count the squares past (x, y) along a line in one direction.
+     *
+     * @param x   starting file
+     * @param y   starting rank
+     * @param k   line kind
+     * @param dir 1 to step forward along the line, -1 for backward
+     * @return    number of squares before the edge of the board
+     */
+    private int run(final int x, final int y, final int k, final int dir) {
+        int n = 0;
+        int cx = x + LINE_STEP[k][0] * dir;
+        int cy = y + LINE_STEP[k][1] * dir;
+        while (cx >= 0 && cx < width && cy >= 0 && cy < height) {
+            n++;
+            cx += LINE_STEP[k][0] * dir;
+            cy += LINE_STEP[k][1] * dir;
+        }
+        return n;
+    }
+
+    /**
+     * Fill in one table entry's attacks along a line in one direction,
+     * stopping at (and including) the first occupied square.
+     *
+     * @param k    line kind
+     * @param sq   the attacking square
+     * @param pos  the attacking square's bit index along the line
+     * @param bits occupancy of the line
+     * @param dir  1 to step forward along the line, -1 for backward
+     */
+    private void fillLine(final int k, final int sq, final int pos,
+                          final int bits, final int dir) {
+        int index = (bits >>> 1) & lineMask[k][sq];
+        int x = sq % width + LINE_STEP[k][0] * dir;
+        int y = sq / width + LINE_STEP[k][1] * dir;
+        int p = pos + dir;
+        while (x >= 0 && x < width && y >= 0 && y < height) {
+            setBit(lineLo[k][sq], lineHi[k][sq], index, y * width + x);
+            if ((bits & (1 << p)) != 0) {
+                break;
+            }
+            x += LINE_STEP[k][0] * dir;
+            y += LINE_STEP[k][1] * dir;
+            p += dir;
+        }
+    }
+
+    /**
+     * Get the tables for a board of the given size.
+     *
+     * @param w board width
+     * @param h board height
+     * @return  the shared geometry for this size
+     */
+    public static Geometry get(final int w, final int h) {
+        if (w * h > MAX_SQUARES || w > MAX_WIDTH) {
+            throw new IllegalArgumentException("Board too large: " +
+                                               w + "x" + h);
+        }
+        Integer key = w * MAX_SQUARES + h;
+        synchronized (CACHE) {
+            Geometry g = CACHE.get(key);
+            if (g == null) {
+                g = new Geometry(w, h);
+                CACHE.put(key, g);
+            }
+            return g;
+        }
+    }
+
+    /**
+     * Set a square's bit in a pair of parallel low/high tables.
+     *
+     * @param lo    low words
+     * @param hi    high words
+     * @param index table index
+     * @param sq    the square
+     */
+    private static void setBit(final long[] lo, final long[] hi,
+                               final int index, final int sq) {
+        if (sq < Long.SIZE) {
+            lo[index] |= 1L << sq;
+        } else {
+            hi[index] |= 1L << (sq - Long.SIZE);
+        }
+    }
+
+    /**
+     * Low word of a 128-bit set shifted by n squares. Positive n
+     * shifts toward higher squares.
+     *
+     * @param lo low word
+     * @param hi high word
+     * @param n  shift distance (-63 to 63)
+     * @return   low word of the result
+     */
+    public static long shiftLow(final long lo, final long hi, final int n) {
+        if (n > 0) {
+            return lo << n;
+        } else if (n < 0) {
+            return (lo >>> -n) | (hi << (Long.SIZE + n));
+        }
+        return lo;
+    }
+
+    /**
+     * High word of a 128-bit set shifted by n squares. Positive n
+     * shifts toward higher squares.
+     *
+     * @param lo low word
+     * @param hi high word
+     * @param n  shift distance (-63 to 63)
+     * @return   high word of the result
+     */
+    public static long shiftHigh(final long lo, final long hi, final int n) {
+        if (n > 0) {
+            return (hi << n) | (lo >>> (Long.SIZE - n));
+        } else if (n < 0) {
+            return hi >>> -n;
+        }
+        return hi;
+    }
+
+    /**
+     * Low word of a set with every square moved by (dx, dy), dropping
+     * squares that leave the board or wrap around a side edge.
+     *
+     * @param lo low word
+     * @param hi high word
+     * @param dx file change (-2 to 2)
+     * @param dy rank change
+     * @return   low word of the result
+     */
+    public long stepLow(final long lo, final long hi,
+                        final int dx, final int dy) {
+        return shiftLow(lo, hi, dy * width + dx) & wrapLo[dx + MAX_SHIFT];
+    }
+
+    /**
+     * High word of a set with every square moved by (dx, dy), dropping
+     * squares that leave the board or wrap around a side edge.
+     *
+     * @param lo low word
+     * @param hi high word
+     * @param dx file change (-2 to 2)
+     * @param dy rank change
+     * @return   high word of the result
+     */
+    public long stepHigh(final long lo, final long hi,
+                         final int dx, final int dy) {
+        return shiftHigh(lo, hi, dy * width + dx) & wrapHi[dx + MAX_SHIFT];
+    }
+
+    /**
+     * Lowest square in a set.
+     *
+     * @param lo low word
+     * @param hi high word (only used if the low word is empty)
+     * @return   the lowest square, or -1 for an empty set
+     */
+    public static int first(final long lo, final long hi) {
+        if (lo != 0) {
+            return Long.numberOfTrailingZeros(lo);
+        } else if (hi != 0) {
+            return Long.SIZE + Long.numberOfTrailingZeros(hi);
+        }
+        return -1;
+    }
+
+    /**
+     * Get the board width.
+     *
+     * @return the board width
+     */
+    public int getWidth() {
+        return width;
+    }
+
+    /**
+     * Get the board height.
+     *
+     * @return the board height
+     */
+    public int getHeight() {
+        return height;
+    }
+
+    /**
+     * Get the Position of a square. Positions are immutable, so one
+     * object per square is shared by every board of this size.
+     *
+     * @param sq the square
+     * @return   the square's position
+     */
+    public Position position(final int sq) {
+        return positions[sq];
+    }
+
+    /**
+     * Low word of the knight attacks from a square.
+     *
+     * @param sq the square
+     * @return   attacked squares
+     */
+    public long knightLow(final int sq) {
+        return knightLo[sq];
+    }
+
+    /**
+     * High word of the knight attacks from a square.
+     *
+     * @param sq the square
+     * @return   attacked squares
+     */
+    public long knightHigh(final int sq) {
+        return knightHi[sq];
+    }
+
+    /**
+     * Low word of the king attacks from a square.
+     *
+     * @param sq the square
+     * @return   attacked squares
+     */
+    public long kingLow(final int sq) {
+        return kingLo[sq];
+    }
+
+    /**
+     * High word of the king attacks from a square.
+     *
+     * @param sq the square
+     * @return   attacked squares
+     */
+    public long kingHigh(final int sq) {
+        return kingHi[sq];
+    }
+
+    /**
+     * Low word of the pawn captures from a square.
+     *
+     * @param side side of the pawn
+     * @param sq   the square
+     * @return     attacked squares
+     */
+    public long pawnLow(final Piece.Side side, final int sq) {
+        return pawnLo[side.ordinal()][sq];
+    }
+
+    /**
+     * High word of the pawn captures from a square.
+     *
+     * @param side side of the pawn
+     * @param sq   the square
+     * @return     attacked squares
+     */
+    public long pawnHigh(final Piece.Side side, final int sq) {
+        return pawnHi[side.ordinal()][sq];
+    }
+
+    /**
+     * Get the number of lines of the given kind.
+     *
+     * @param k line kind
+     * @return  number of lines
+     */
+    public int lineCount(final int k) {
+        return lineCount[k];
+    }
+
+    /**
+     * Get the line of the given kind passing through a square.
+     *
+     * @param k  line kind
+     * @param sq the square
+     * @return   index of the line
+     */
+    public int lineOf(final int k, final int sq) {
+        return lineOf[k][sq];
+    }
+
+    /**
+     * Get a square's bit within its line of the given kind.
+     *
+     * @param k  line kind
+     * @param sq the square
+     * @return   single bit marking the square in the line's occupancy
+     */
+    public int lineBit(final int k, final int sq) {
+        return lineBit[k][sq];
+    }
+
+    /**
+     * Low word of the attacks along a line from a square.
+     *
+     * @param k   line kind
+     * @param sq  the square
+     * @param occ occupancy of the line through the square
+     * @return    attacked squares, including the blockers
+     */
+    public long lineLow(final int k, final int sq, final int occ) {
+        return lineLo[k][sq][(occ >>> 1) & lineMask[k][sq]];
+    }
+
+    /**
+     * High word of the attacks along a line from a square.
+     *
+     * @param k   line kind
+     * @param sq  the square
+     * @param occ occupancy of the line through the square
+     * @return    attacked squares, including the blockers
+     */
+    public long lineHigh(final int k, final int sq, final int occ) {
+        return lineHi[k][sq][(occ >>> 1) & lineMask[k][sq]];
+    }
+}
@@ -35,7 +35,7 @@ public final class Move implements Serializable {
     private Piece.Side replacementSide;
 
     /** Score for this move. */
-    private double score;
+    private int score;
 
     /**
      * Create a new move to move a piece from one position to another.
@@ -164,7 +164,7 @@ public final class Move implements Serializable {
      *
      * @return this move's score
      */
-    public double getScore() {
+    public int getScore() {
         return score;
     }
 
@@ -173,7 +173,7 @@ public final class Move implements Serializable {
      *
      * @param newscore  this move's score
      */
-    public void setScore(final double newscore) {
+    public void setScore(final int newscore) {
         this.score = newscore;
     }
 }
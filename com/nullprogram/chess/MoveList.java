@@ -3,50 +3,24 @@ package com.nullprogram.chess;
 import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.Iterator;
 import java.util.List;
 
 /**
- * Safe list of moves.
- *
- * Before a move is added it can be checked for some basic validity.
+ * List of moves, as handed to the player interface. The search itself
+ * works on packed moves (see PackedMoveList).
  */
 public class MoveList implements Iterable<Move>, Serializable {
 
     /** Versioning for object serialization. */
     private static final long serialVersionUID = -25601206293390593L;
 
-    /** The board used to verify positions before adding them. */
-    private Board board;
-
-    /** Should we check for check when verifying moves. */
-    private boolean check;
-
     /** The actual list of moves. */
     private final List<Move> moves = new ArrayList<Move>();
 
     /**
-     * Create a new move list relative to a board.
-     *
-     * @param verifyBoard the board to be used
-     */
-    public MoveList(final Board verifyBoard) {
-        this(verifyBoard, true);
-    }
-
-    /**
-     * Create a new move list relative to a board.
-     *
-     * @param checkCheck  check for check
-     * @param verifyBoard the board to be used
-     */
-    public MoveList(final Board verifyBoard, final boolean checkCheck) {
-        board = verifyBoard;
-        check = checkCheck;
-    }
-
-    /**
-     * Add a move without verifying it.
+     * Add a move.
      * @param move move to be added
      * @return true
      */
@@ -67,76 +41,6 @@ public class MoveList implements Iterable<Move>, Serializable {
         return true;
     }
 
-    /**
-     * Add move to list if piece can legally move there (no capture).
-     *
-     * @param move move to be added
-     * @return     true if position was added
-     */
-    public final boolean addMove(final Move move) {
-        if (board.isFree(move.getDest())) {
-            if (!causesCheck(move)) {
-                add(move);
-                return true;
-            }
-            return true; // false only for a "blocking" move
-        }
-        return false;
-    }
-
-    /**
-     * Add move to list if piece can move <i>or</i> capture at destination.
-     *
-     * @param move position to be added
-     * @return     true if position was added
-     */
-    public final boolean addCapture(final Move move) {
-        Piece p = board.getPiece(move.getOrigin());
-        if (board.isFree(move.getDest(), p.getSide())) {
-            if (!causesCheck(move)) {
-                add(move);
-                return true;
-            }
-            return true; // false only for a "blocking" move
-        }
-        return false;
-    }
-
-    /**
-     * Add move to list only if the piece will perform a capture.
-     *
-     * @param move position to be added
-     * @return     true if position was added
-     */
-    public final boolean addCaptureOnly(final Move move) {
-        Piece p = board.getPiece(move.getOrigin());
-        if (board.isFree(move.getDest(), p.getSide()) &&
-            !board.isFree(move.getDest()) &&
-            !causesCheck(move)) {
-
-            add(move);
-            return true;
-        }
-        return false;
-    }
-
-    /**
-     * Determine if move will cause check for the same side.
-     *
-     * @param move move to be tested
-     * @return     true if move causes check
-     */
-    private boolean causesCheck(final Move move) {
-        if (!check) {
-            return false;
-        }
-        Piece p = board.getPiece(move.getOrigin());
-        board.move(move);
-        boolean ret = board.check(p.getSide());
-        board.undo();
-        return ret;
-    }
-
     /**
      * Return true if this list contains the position as a destination.
      *
@@ -216,6 +120,18 @@ public class MoveList implements Iterable<Move>, Serializable {
         Collections.shuffle(moves);
     }
 
+    /**
+     * Sort the moves by score, highest first. Moves with equal scores
+     * keep their order.
+     */
+    public final void sortByScore() {
+        Collections.sort(moves, new Comparator<Move>() {
+            public int compare(final Move a, final Move b) {
+                return Integer.compare(b.getScore(), a.getScore());
+            }
+        });
+    }
+
     @Override
     public final Iterator<Move> iterator() {
         return moves.iterator();
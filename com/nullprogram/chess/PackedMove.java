@@ -0,0 +1,271 @@
+package com.nullprogram.chess;
+
+import com.nullprogram.chess.pieces.PieceFactory;
+
+/**
+ * Compact move encoding: a whole move packed into an int.
+ *
+ * The search makes and unmakes millions of moves, so it works with
+ * these instead of Move objects. Move remains the type handed to the
+ * GUI and to players, and the two can be converted back and forth.
+ *
+ * <pre>
+ *  bits  0-6   origin square
+ *  bits  7-13  destination square
+ *  bits 14-16  flag (NORMAL, DOUBLE_PUSH, EN_PASSANT, CASTLE, PROMOTION)
+ *  bits 17-19  promotion piece type
+ *  bits 20-23  captured piece type + 1 (0 for no capture)
+ *  bits 24-26  moving piece type
+ *  bit  27     moving side (0 white, 1 black)
+ * </pre>
+ *
+ * Zero is never a real move (origin and destination are the same),
+ * so it stands for "no move".
+ */
+public final class PackedMove {
+
+    /** Not a move. */
+    public static final int NONE = 0;
+
+    /** An ordinary move or capture. */
+    public static final int NORMAL = 0;
+
+    /** A pawn moving two squares. */
+    public static final int DOUBLE_PUSH = 1;
+
+    /** A pawn capturing en passant. */
+    public static final int EN_PASSANT = 2;
+
+    /** A king castling; the destination is the king's. */
+    public static final int CASTLE = 3;
+
+    /** A pawn promoting. */
+    public static final int PROMOTION = 4;
+
+    /** Width of a square field. */
+    private static final int SQUARE_BITS = 7;
+
+    /** Mask for a square field. */
+    private static final int SQUARE_MASK = (1 << SQUARE_BITS) - 1;
+
+    /** Shift of the destination square. */
+    private static final int TO_SHIFT = 7;
+
+    /** Shift of the flag. */
+    private static final int FLAG_SHIFT = 14;
+
+    /** Shift of the promotion type. */
+    private static final int PROMOTION_SHIFT = 17;
+
+    /** Shift of the captured type. */
+    private static final int CAPTURED_SHIFT = 20;
+
+    /** Shift of the moving piece type. */
+    private static final int PIECE_SHIFT = 24;
+
+    /** Shift of the moving side. */
+    private static final int SIDE_SHIFT = 27;
+
+    /** Mask for three bit fields. */
+    private static final int MASK3 = 7;
+
+    /** Mask for four bit fields. */
+    private static final int MASK4 = 15;
+
+    /** Hidden constructor. */
+    private PackedMove() {
+    }
+
+    /**
+     * Pack a move.
+     *
+     * @param from      origin square
+     * @param to        destination square
+     * @param piece     moving piece
+     * @param captured  type of the captured piece, or -1
+     * @param flag      move flag
+     * @param promotion type of the promoted piece (PROMOTION only)
+     * @return          the packed move
+     */
+    public static int create(final int from, final int to, final Piece piece,
+                             final int captured, final int flag,
+                             final int promotion) {
+        return from |
+               (to << TO_SHIFT) |
+               (flag << FLAG_SHIFT) |
+               (promotion << PROMOTION_SHIFT) |
+               ((captured + 1) << CAPTURED_SHIFT) |
+               (piece.getType() << PIECE_SHIFT) |
+               (piece.getSide().ordinal() << SIDE_SHIFT);
+    }
+
+    /**
+     * Get the origin square.
+     *
+     * @param move packed move
+     * @return     origin square
+     */
+    public static int from(final int move) {
+        return move & SQUARE_MASK;
+    }
+
+    /**
+     * Get the destination square.
+     *
+     * @param move packed move
+     * @return     destination square
+     */
+    public static int to(final int move) {
+        return (move >>> TO_SHIFT) & SQUARE_MASK;
+    }
+
+    /**
+     * Get the move flag.
+     *
+     * @param move packed move
+     * @return     move flag
+     */
+    public static int flag(final int move) {
+        return (move >>> FLAG_SHIFT) & MASK3;
+    }
+
+    /**
+     * Get the type of the piece promoted to.
+     *
+     * @param move packed move
+     * @return     promotion piece type (PROMOTION moves only)
+     */
+    public static int promotion(final int move) {
+        return (move >>> PROMOTION_SHIFT) & MASK3;
+    }
+
+    /**
+     * Get the type of the captured piece.
+     *
+     * @param move packed move
+     * @return     captured piece type, or -1 if nothing is captured
+     */
+    public static int captured(final int move) {
+        return ((move >>> CAPTURED_SHIFT) & MASK4) - 1;
+    }
+
+    /**
+     * Determine if this move captures anything.
+     *
+     * @param move packed move
+     * @return     true if the move is a capture
+     */
+    public static boolean isCapture(final int move) {
+        return ((move >>> CAPTURED_SHIFT) & MASK4) != 0;
+    }
+
+    /**
+     * Get the type of the moving piece.
+     *
+     * @param move packed move
+     * @return     moving piece type
+     */
+    public static int piece(final int move) {
+        return (move >>> PIECE_SHIFT) & MASK3;
+    }
+
+    /**
+     * Get the side making the move.
+     *
+     * @param move packed move
+     * @return     moving side
+     */
+    public static Piece.Side side(final int move) {
+        if ((move >>> SIDE_SHIFT) == 0) {
+            return Piece.Side.WHITE;
+        }
+        return Piece.Side.BLACK;
+    }
+
+    /**
+     * Pack a Move object for the given board, which must be in the
+     * position the move is made from.
+     *
+     * @param b    the board
+     * @param move the move
+     * @return     the packed move
+     */
+    public static int encode(final Board b, final Move move) {
+        Position orig = move.getOrigin();
+        Position dest = move.getDest();
+        int from = b.square(orig.getX(), orig.getY());
+        int to = b.square(dest.getX(), dest.getY());
+        Piece p = b.getPiece(from);
+        Piece target = b.getPiece(to);
+        int captured = target == null ? -1 : target.getType();
+        int dx = dest.getX() - orig.getX();
+        int dy = dest.getY() - orig.getY();
+        int flag = NORMAL;
+        int promotion = 0;
+        if (p.getType() == Piece.KING && Math.abs(dx) > 1) {
+            flag = CASTLE;
+        } else if (p.getType() == Piece.PAWN) {
+            if (dx != 0 && target == null) {
+                flag = EN_PASSANT;
+                captured = Piece.PAWN;
+            } else if (Math.abs(dy) == 2) {
+                flag = DOUBLE_PUSH;
+            } else if (dest.getY() == 0 || dest.getY() == b.getHeight() - 1) {
+                flag = PROMOTION;
+                promotion = Piece.QUEEN;
+                for (Move m = move; m != null; m = m.getNext()) {
+                    if (m.getReplacement() != null) {
+                        promotion = Piece.typeOf(m.getReplacement());
+                    }
+                }
+            }
+        }
+        return create(from, to, p, captured, flag, promotion);
+    }
+
+    /**
+     * Unpack a move into a Move object, including the extra movement
+     * actions for castling, en passant and promotion.
+     *
+     * @param b    a board of the right size
+     * @param move the packed move
+     * @return     the equivalent Move
+     */
+    public static Move toMove(final Board b, final int move) {
+        int from = from(move);
+        int to = to(move);
+        Position orig = b.getPosition(from);
+        Position dest = b.getPosition(to);
+        Move result = new Move(orig, dest);
+        switch (flag(move)) {
+        case CASTLE:
+            result.setNext(new Move(b.getPosition(b.castleRookFrom(from, to)),
+                                    b.getPosition(b.castleRookTo(from, to))));
+            break;
+        case EN_PASSANT:
+            result.setNext(new Move(b.getPosition(b.passantSquare(from, to)),
+                                    null));
+            break;
+        case PROMOTION:
+            Move upgrade = new Move(null, dest);
+            upgrade.setReplacement(Piece.nameOf(promotion(move)));
+            upgrade.setReplacementSide(side(move));
+            result.setNext(new Move(dest, null));
+            result.getNext().setNext(upgrade);
+            break;
+        default:
+            break;
+        }
+        return result;
+    }
+
+    /**
+     * Create the piece a move promotes to.
+     *
+     * @param move the packed move
+     * @return     a fresh piece
+     */
+    public static Piece promote(final int move) {
+        return PieceFactory.create(Piece.nameOf(promotion(move)), side(move));
+    }
+}
@@ -0,0 +1,92 @@
+package com.nullprogram.chess;
+
+import java.io.Serializable;
+import java.util.Arrays;
+
+/**
+ * List of packed moves (see PackedMove) backed by an int array.
+ *
+ * This is meant to be allocated once and reused: clearing it keeps
+ * the array, so a search that holds one list per ply generates moves
+ * without allocating anything.
+ */
+public final class PackedMoveList implements Serializable {
+
+    /** Versioning for object serialization. */
+    private static final long serialVersionUID = -6212436107533812117L;
+
+    /** Starting capacity, enough for nearly any position. */
+    private static final int CAPACITY = 256;
+
+    /** The moves. */
+    private int[] moves = new int[CAPACITY];
+
+    /** Number of moves in the list. */
+    private int size;
+
+    /**
+     * Append a move.
+     *
+     * @param move packed move
+     */
+    public void add(final int move) {
+        if (size == moves.length) {
+            moves = Arrays.copyOf(moves, size * 2);
+        }
+        moves[size++] = move;
+    }
+
+    /**
+     * Get the move at the given index.
+     *
+     * @param i index into the list
+     * @return  packed move
+     */
+    public int get(final int i) {
+        return moves[i];
+    }
+
+    /**
+     * Replace the move at the given index.
+     *
+     * @param i    index into the list
+     * @param move packed move
+     */
+    public void set(final int i, final int move) {
+        moves[i] = move;
+    }
+
+    /**
+     * Get the number of moves in this list.
+     *
+     * @return the number of moves in this list
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Determine if this move list is empty.
+     *
+     * @return true if empty
+     */
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * Drop moves from the end of the list.
+     *
+     * @param newSize the new, smaller size
+     */
+    public void truncate(final int newSize) {
+        size = newSize;
+    }
+
+    /**
+     * Empty the list, keeping its storage.
+     */
+    public void clear() {
+        size = 0;
+    }
+}
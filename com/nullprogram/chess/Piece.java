@@ -13,10 +13,11 @@ import java.io.Serializable;
  *
  * To make it work with the AI, which you will certainly want to do,
  * you need to add a piece weight to the default AI configuration
- * (default.properies) and a parse entry in the Minimax constructor,
- * right after all the other pieces.
+ * (default.properies) and give the piece a type index by adding its
+ * name to TYPE_NAMES. The board keeps a bitboard for each type index
+ * and the AI looks up piece weights by it.
  */
-public abstract class Piece implements Serializable {
+public abstract class Piece implements Serializable, Cloneable {
 
     /** Versioning for object serialization. */
     private static final long serialVersionUID = -214124732216708977L;
@@ -36,6 +37,42 @@ public abstract class Piece implements Serializable {
     /** Name of this piece. */
     private String name;
 
+    /** Type index of this piece. */
+    private int type;
+
+    /** Type index of the pawn. */
+    public static final int PAWN = 0;
+
+    /** Type index of the knight. */
+    public static final int KNIGHT = 1;
+
+    /** Type index of the bishop. */
+    public static final int BISHOP = 2;
+
+    /** Type index of the rook. */
+    public static final int ROOK = 3;
+
+    /** Type index of the queen. */
+    public static final int QUEEN = 4;
+
+    /** Type index of the king. */
+    public static final int KING = 5;
+
+    /** Type index of the chancellor. */
+    public static final int CHANCELLOR = 6;
+
+    /** Type index of the archbishop. */
+    public static final int ARCHBISHOP = 7;
+
+    /** Number of piece types. */
+    public static final int TYPES = 8;
+
+    /** Piece names, in type index order. */
+    private static final String[] TYPE_NAMES = {
+        "Pawn", "Knight", "Bishop", "Rook", "Queen", "King",
+        "Chancellor", "Archbishop"
+    };
+
     /**
      * The side of the piece: white or black.
      */
@@ -88,15 +125,51 @@ public abstract class Piece implements Serializable {
     protected Piece(final Side owner, final String pieceName) {
         side = owner;
         name = pieceName;
+        type = typeOf(pieceName);
     }
 
+    /**
+     * Append this piece's moves to a list, packed (see PackedMove).
+     * The moves are not checked for leaving the king in check; the
+     * caller does that when it matters (see Board.retainLegal()).
+     *
+     * @param list       list to be appended to
+     * @param checkCheck include moves that need check testing (castling)
+     */
+    public abstract void generate(PackedMoveList list, boolean checkCheck);
+
     /**
      * Get the moves for this piece.
      *
      * @param checkCheck check for check
      * @return           list of moves
      */
-    public abstract MoveList getMoves(boolean checkCheck);
+    public final MoveList getMoves(final boolean checkCheck) {
+        PackedMoveList packed = new PackedMoveList();
+        generate(packed, checkCheck);
+        if (checkCheck) {
+            board.retainLegal(packed, 0, side);
+        }
+        MoveList list = new MoveList();
+        for (int i = 0; i < packed.size(); i++) {
+            list.add(PackedMove.toMove(board, packed.get(i)));
+        }
+        return list;
+    }
+
+    /**
+     * Copy this piece, including its movement counter. The copy still
+     * refers to this piece's board until it is placed on another.
+     *
+     * @return a new, identical piece
+     */
+    public final Piece copy() {
+        try {
+            return (Piece) clone();
+        } catch (CloneNotSupportedException e) {
+            throw new IllegalStateException(e);
+        }
+    }
 
     /**
      * Update the piece's current position on the board.
@@ -154,6 +227,15 @@ public abstract class Piece implements Serializable {
         return side;
     }
 
+    /**
+     * Get the type index of this piece.
+     *
+     * @return the piece's type index
+     */
+    public final int getType() {
+        return type;
+    }
+
     /**
      * Get the image that represents this piece.
      *
@@ -201,4 +283,29 @@ public abstract class Piece implements Serializable {
             return Side.BLACK;
         }
     }
+
+    /**
+     * Look up the type index for a piece name.
+     *
+     * @param pieceName name of the piece
+     * @return          the type index
+     */
+    public static int typeOf(final String pieceName) {
+        for (int i = 0; i < TYPES; i++) {
+            if (TYPE_NAMES[i].equals(pieceName)) {
+                return i;
+            }
+        }
+        throw new IllegalArgumentException("Unknown piece: " + pieceName);
+    }
+
+    /**
+     * Look up the piece name for a type index.
+     *
+     * @param pieceType type index
+     * @return          name of the piece
+     */
+    public static String nameOf(final int pieceType) {
+        return TYPE_NAMES[pieceType];
+    }
 }
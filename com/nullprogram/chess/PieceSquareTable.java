@@ -0,0 +1,79 @@
+package com.nullprogram.chess;
+
+import java.io.Serializable;
+
+/**
+ * Value of every piece type on every square of one board size: its
+ * material value plus a bonus or penalty for where it stands.
+ *
+ * A board given a table (see Board.setScoring()) keeps each side's
+ * total up to date as pieces come and go, so the evaluation reads the
+ * material and placement score without looking at the board.
+ *
+ * Values are set from white's point of view. Black's are the same
+ * with the board flipped top to bottom.
+ */
+public final class PieceSquareTable implements Serializable {
+
+    /** Versioning for object serialization. */
+    private static final long serialVersionUID = 4620178394520671042L;
+
+    /** Width of the board this table is for. */
+    private final int width;
+
+    /** Height of the board this table is for. */
+    private final int height;
+
+    /** Values, indexed by side ordinal * TYPES + type, then square. */
+    private final int[][] values;
+
+    /**
+     * Create a table of zeros for the given board size.
+     *
+     * @param w width of the board
+     * @param h height of the board
+     */
+    public PieceSquareTable(final int w, final int h) {
+        width = w;
+        height = h;
+        values = new int[2 * Piece.TYPES][w * h];
+    }
+
+    /**
+     * Set the value of a piece type on a square, for both sides.
+     *
+     * @param type  piece type
+     * @param x     column, from white's point of view
+     * @param y     row, from white's point of view
+     * @param value the value
+     */
+    public void set(final int type, final int x, final int y,
+                    final int value) {
+        int white = Piece.Side.WHITE.ordinal() * Piece.TYPES + type;
+        int black = Piece.Side.BLACK.ordinal() * Piece.TYPES + type;
+        values[white][y * width + x] = value;
+        values[black][(height - 1 - y) * width + x] = value;
+    }
+
+    /**
+     * Get the value of a piece on a square.
+     *
+     * @param set side ordinal * TYPES + piece type
+     * @param sq  the square
+     * @return    the value to the piece's own side
+     */
+    public int value(final int set, final int sq) {
+        return values[set][sq];
+    }
+
+    /**
+     * Determine if this table is for boards of the given size.
+     *
+     * @param w width of the board
+     * @param h height of the board
+     * @return  true if it fits
+     */
+    public boolean fits(final int w, final int h) {
+        return w == width && h == height;
+    }
+}
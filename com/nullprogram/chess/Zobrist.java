@@ -0,0 +1,98 @@
+package com.nullprogram.chess;
+
+import java.util.Random;
+
+/**
+ * Random keys for Zobrist hashing of board positions.
+ *
+ * A position's key is the XOR of one key per (side, piece type,
+ * square), plus keys for the side to move, the castling rights and an
+ * en passant file. Making a move only XORs in the keys that change, so
+ * the board keeps its key up to date as it goes (see Board.getKey()).
+ *
+ * The keys cover every square a board may have (Geometry.MAX_SQUARES)
+ * and every piece type, so boards of any size share them. They come
+ * from a fixed seed and are the same on every run.
+ */
+public final class Zobrist {
+
+    /** Seed for the keys. */
+    private static final long SEED = 0x6f63746f62657221L;
+
+    /** Number of castling right combinations (four rights). */
+    private static final int CASTLINGS = 16;
+
+    /** Keys for each piece, indexed by side * TYPES + type, then square. */
+    private static final long[][] PIECE =
+        new long[2 * Piece.TYPES][Geometry.MAX_SQUARES];
+
+    /** Keys for each combination of castling rights. */
+    private static final long[] CASTLING = new long[CASTLINGS];
+
+    /** Keys for the file of a pawn that may be taken en passant. */
+    private static final long[] PASSANT = new long[Geometry.MAX_WIDTH];
+
+    /** Key for black to move. */
+    private static final long SIDE;
+
+    static {
+        Random rng = new Random(SEED);
+        for (long[] keys : PIECE) {
+            for (int sq = 0; sq < keys.length; sq++) {
+                keys[sq] = rng.nextLong();
+            }
+        }
+        /* no rights at all hashes to nothing, like an empty board */
+        for (int i = 1; i < CASTLINGS; i++) {
+            CASTLING[i] = rng.nextLong();
+        }
+        for (int file = 0; file < PASSANT.length; file++) {
+            PASSANT[file] = rng.nextLong();
+        }
+        SIDE = rng.nextLong();
+    }
+
+    /** Hidden constructor. */
+    private Zobrist() {
+    }
+
+    /**
+     * Key for a piece on a square.
+     *
+     * @param set side ordinal * TYPES + piece type
+     * @param sq  the square
+     * @return    the key
+     */
+    public static long piece(final int set, final int sq) {
+        return PIECE[set][sq];
+    }
+
+    /**
+     * Key for a set of castling rights.
+     *
+     * @param rights castling rights, one bit per side and wing
+     * @return       the key
+     */
+    public static long castling(final int rights) {
+        return CASTLING[rights];
+    }
+
+    /**
+     * Key for an en passant file.
+     *
+     * @param file the file of the pawn that just moved two squares
+     * @return     the key
+     */
+    public static long passant(final int file) {
+        return PASSANT[file];
+    }
+
+    /**
+     * Key toggled by every move, for the side to move.
+     *
+     * @return the key
+     */
+    public static long side() {
+        return SIDE;
+    }
+}
@@ -0,0 +1,76 @@
+package com.nullprogram.chess.ai;
+
+/**
+ * Cooperative stop signal for one turn's search.
+ *
+ * The search threads poll this every so often (see SearchContext) and
+ * unwind as soon as it reads as cancelled. It is cancelled explicitly,
+ * when the game thread is interrupted, or implicitly, once the hard
+ * deadline passes or the token it follows is cancelled.
+ */
+final class Cancellation {
+
+    /** Set once the search should stop. */
+    private volatile boolean cancelled;
+
+    /** Hard deadline in milliseconds since the epoch, 0 for none. */
+    private final long deadline;
+
+    /** Token this one follows, or null. */
+    private final Cancellation parent;
+
+    /**
+     * Create a new token.
+     *
+     * @param hardDeadline time to stop at (currentTimeMillis), 0 for none
+     */
+    Cancellation(final long hardDeadline) {
+        deadline = hardDeadline;
+        parent = null;
+    }
+
+    /**
+     * Create a token that is also cancelled whenever another one is.
+     *
+     * @param follow the token to follow
+     */
+    Cancellation(final Cancellation follow) {
+        deadline = 0;
+        parent = follow;
+    }
+
+    /**
+     * Ask the search to stop.
+     */
+    void cancel() {
+        cancelled = true;
+    }
+
+    /**
+     * Get the token for the whole turn, the one all others follow.
+     *
+     * @return the turn's token
+     */
+    Cancellation turn() {
+        if (parent == null) {
+            return this;
+        }
+        return parent.turn();
+    }
+
+    /**
+     * Determine if the search should stop.
+     *
+     * @return true if cancelled or past the deadline
+     */
+    boolean isCancelled() {
+        if (!cancelled && deadline > 0 &&
+            System.currentTimeMillis() >= deadline) {
+            cancelled = true;
+        }
+        if (!cancelled && parent != null && parent.isCancelled()) {
+            cancelled = true;
+        }
+        return cancelled;
+    }
+}
@@ -36,12 +36,13 @@ public class Config extends HashMap<String, Double> {
     }
 
     /**
-     * Create a properties object from tihs config.
+     * Create a properties object from tihs config. Settings that are
+     * not evolved (not in PLIST) fall back to the default config.
      *
      * @return the properteies that matches this config
      */
     public final Properties getProperties() {
-        Properties props = new Properties();
+        Properties props = new Properties(Minimax.getConfig("default"));
         for (String prop : PLIST) {
             props.setProperty(prop, "" + get(prop));
         }
@@ -0,0 +1,89 @@
+package com.nullprogram.chess.ai;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Fixed-size cache of board evaluations shared by all search threads.
+ *
+ * Each entry is a single long: the top half of the position key and
+ * the score. Like the transposition table, there is no locking, and
+ * entries go through an AtomicLongArray so no thread sees one position's
+ * key half with another's score. The key half tells whether an entry
+ * is for the position asked about.
+ *
+ * Hits and misses are counted for tuning the size. The counters are
+ * striped (LongAdder), so the threads don't fight over them.
+ */
+final class EvalCache {
+
+    /** Returned by probe() when the position is not cached. */
+    static final int MISS = Integer.MIN_VALUE;
+
+    /** Mask for the key half of an entry. */
+    private static final long KEY_MASK = 0xffffffff00000000L;
+
+    /** Mask for the score half of an entry. */
+    private static final long SCORE_MASK = 0xffffffffL;
+
+    /** Entries, one long each. */
+    private final AtomicLongArray table;
+
+    /** Mask selecting an entry index from a key. */
+    private final int mask;
+
+    /** Lookups that found their position. */
+    private final LongAdder hits = new LongAdder();
+
+    /** Lookups that did not. */
+    private final LongAdder misses = new LongAdder();
+
+    /**
+     * Create a cache of 2^bits entries.
+     *
+     * @param bits log2 of the number of entries
+     */
+    EvalCache(final int bits) {
+        table = new AtomicLongArray(1 << bits);
+        mask = (1 << bits) - 1;
+    }
+
+    /**
+     * Look up a position's evaluation.
+     *
+     * @param key position key
+     * @return    the score, or MISS
+     */
+    int probe(final long key) {
+        long entry = table.get((int) key & mask);
+        if (entry == 0 || ((entry ^ key) & KEY_MASK) != 0) {
+            misses.increment();
+            return MISS;
+        }
+        hits.increment();
+        return (int) (entry & SCORE_MASK);
+    }
+
+    /**
+     * Remember a position's evaluation.
+     *
+     * @param key   position key
+     * @param score the score
+     */
+    void store(final long key, final int score) {
+        table.lazySet((int) key & mask,
+                      (key & KEY_MASK) | (score & SCORE_MASK));
+    }
+
+    /**
+     * Get the share of lookups that hit since the last call, and start
+     * counting afresh.
+     *
+     * @return hits over lookups, or 0 if there were none
+     */
+    double hitRate() {
+        long hit = hits.sumThenReset();
+        long total = hit + misses.sumThenReset();
+        return total == 0 ? 0 : hit / (double) total;
+    }
+}
@@ -2,38 +2,46 @@ package com.nullprogram.chess.ai;
 
 import com.nullprogram.chess.Board;
 import com.nullprogram.chess.Game;
+import com.nullprogram.chess.Geometry;
 import com.nullprogram.chess.Move;
 import com.nullprogram.chess.MoveList;
+import com.nullprogram.chess.PackedMove;
+import com.nullprogram.chess.PackedMoveList;
 import com.nullprogram.chess.Piece;
+import com.nullprogram.chess.PieceSquareTable;
 import com.nullprogram.chess.Player;
-import com.nullprogram.chess.Position;
-import com.nullprogram.chess.pieces.Archbishop;
-import com.nullprogram.chess.pieces.Bishop;
-import com.nullprogram.chess.pieces.Chancellor;
-import com.nullprogram.chess.pieces.King;
-import com.nullprogram.chess.pieces.Knight;
-import com.nullprogram.chess.pieces.Pawn;
-import com.nullprogram.chess.pieces.Queen;
-import com.nullprogram.chess.pieces.Rook;
 import java.io.IOException;
 import java.io.InputStream;
-import java.util.HashMap;
-import java.util.Map;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Properties;
 import java.util.concurrent.Callable;
 import java.util.concurrent.CompletionService;
 import java.util.concurrent.ExecutionException;
-import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.ExecutorCompletionService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.Future;
+import java.util.concurrent.RecursiveTask;
 import java.util.logging.Logger;
 
 /**
  * Minimax Chess AI player.
  *
- * This employs the dumb minimax algorithm to search the game tree for
- * moves. The board is currently only evaluated only by the pieces
- * present, not their positions.
+ * The search is iterative deepening alpha-beta in negamax form, with
+ * aspiration windows, principal variation search, null move pruning,
+ * late move reductions and a quiescence search of captures. A shared
+ * transposition table and staged, ordered move generation (see
+ * MovePicker) keep it from repeating work. Several cores search at
+ * once, by Lazy SMP, by splitting the root, or by young brothers wait
+ * (see the "parallel" property).
+ *
+ * Boards are evaluated by material and piece placement (see
+ * PieceSquareTable), mobility, king safety and pawn structure (see
+ * PawnTable), with evaluations cached by position (see EvalCache).
+ * The weights come from a properties file (see default.properties).
  */
 public class Minimax implements Player {
 
@@ -54,26 +62,155 @@ public class Minimax implements Player {
     /** Best move, the selected move. */
     private volatile Move bestMove;
 
+    /** Score the remaining root moves must beat. */
+    private volatile int rootAlpha;
+
     /** Thread manager. */
-    private final Executor executor = Executors.newFixedThreadPool(NTHREADS);
+    private final ExecutorService executor =
+        Executors.newFixedThreadPool(NTHREADS);
+
+    /** How the search uses more than one thread (configured). */
+    private String parallel;
+
+    /** Thread pool for the young brothers wait search, if used. */
+    private ForkJoinPool forkJoin;
+
+    /** Minimum depth left for a young brothers split (configured). */
+    private int splitDepth;
+
+    /** Depth the last turn's search completed. */
+    private int reached;
 
-    /** Values of each piece. */
-    private Map<Class, Double> values;
+    /** Values of each piece in centipawns, indexed by piece type. */
+    private int[] values;
+
+    /** Bonus of each piece type by rank from its own side (configured). */
+    private double[][] rankBonus;
+
+    /** Bonus of each piece type per step from the edge (configured). */
+    private double[] centerBonus;
+
+    /** Piece values by square, for the last board size played. */
+    private PieceSquareTable squares;
 
     /** Divisor for milliseconds. */
     static final double MILLI = 1000.0;
 
+    /** Multiplier for percentages. */
+    private static final int PERCENT = 100;
+
+    /** Typical number of moves left in a game, for clock budgeting. */
+    private static final int MOVES_TO_GO = 30;
+
+    /**
+     * Each iteration takes several times as long as the one before, so
+     * a new one is only started if no more than 1/NEXT_ITERATION of the
+     * time budget has gone.
+     */
+    private static final int NEXT_ITERATION = 2;
+
+    /** Centipawns per pawn: configured values are given in pawns. */
+    private static final int CENTI = 100;
+
+    /** Bound beyond any score, for open windows. */
+    private static final int INFINITY = 1 << 22;
+
+    /** Score for delivering checkmate now; mate in n plies is MATE - n. */
+    private static final int MATE = 1 << 21;
+
+    /** Scores beyond this, either way, announce a mate. */
+    private static final int MATE_BOUND = MATE - (1 << 10);
+
+    /** Width of a null window. */
+    private static final int WINDOW = 1;
+
+    /** Delta pruning margin, in pawns. */
+    private static final int DELTA_PAWNS = 2;
+
+    /**
+     * Marks a forked search that was cut off by a brother, or that
+     * proved no better than the bar it was tested against.
+     */
+    private static final int CUT = Integer.MIN_VALUE;
+
     /** Maximum depth (configured). */
     private int maxDepth;
 
-    /** Material score weight (configured). */
+    /** Fixed time per move in milliseconds, 0 for none (configured). */
+    private long moveTime;
+
+    /** Total clock time in milliseconds, 0 for none (configured). */
+    private long clock;
+
+    /** Clock time added after each move in milliseconds (configured). */
+    private long increment;
+
+    /** Time left on this player's clock in milliseconds. */
+    private long clockLeft;
+
+    /** Material score weight, applied to the piece values (configured). */
     private double wMaterial;
 
-    /** King safety score weight (configured). */
-    private double wSafety;
+    /** King safety, centipawns per square in reach (configured). */
+    private int wSafety;
+
+    /** Mobility, centipawns per move (configured). */
+    private int wMobility;
+
+    /** Each thread's pawn table holds 2^pawnTable entries (configured). */
+    private int pawnTable;
+
+    /** Penalty for each extra pawn on a file (configured). */
+    private int pawnDoubled;
+
+    /** Penalty for an isolated pawn (configured). */
+    private int pawnIsolated;
+
+    /** Bonus for a passed pawn by rank (configured). */
+    private int[] pawnPassed;
+
+    /** Bonus for a passed pawn free to advance (configured). */
+    private int pawnFree;
+
+    /** Bonus for each pawn sheltering its king (configured). */
+    private int pawnShield;
+
+    /** Null move depth reduction, 0 to disable (configured). */
+    private int nullReduction;
+
+    /** Minimum depth for trying a null move (configured). */
+    private int nullDepth;
 
-    /** Mobility score weight (configured). */
-    private double wMobility;
+    /** Minimum depth for late move reductions (configured). */
+    private int lmrDepth;
+
+    /** Moves searched in full before reducing the rest (configured). */
+    private int lmrMoves;
+
+    /** Late move depth reduction, 0 to disable (configured). */
+    private int lmrReduction;
+
+    /** Aspiration window half-width, 0 to disable (configured). */
+    private int aspiration;
+
+    /** Transposition table shared by all search threads. */
+    private final TranspositionTable table;
+
+    /** Evaluation cache shared by all search threads. */
+    private final EvalCache evals;
+
+    /** Each search thread's private state. */
+    private final ThreadLocal<SearchContext> contexts =
+        new ThreadLocal<SearchContext>() {
+            @Override
+            protected SearchContext initialValue() {
+                return new SearchContext(new PawnTable(pawnTable,
+                                                       pawnDoubled,
+                                                       pawnIsolated,
+                                                       pawnPassed),
+                                         values);
+            }
+        };
 
     /**
      * Create the default Minimax.
@@ -102,31 +239,106 @@ public class Minimax implements Player {
      */
     public Minimax(final Game active, final Properties props) {
         game = active;
-        values = new HashMap<Class, Double>();
+        values = new int[Piece.TYPES];
         Properties config = props;
+        wMaterial = Double.parseDouble(config.getProperty("material"));
+        wSafety = centipawns(config, "safety", 1);
+        wMobility = centipawns(config, "mobility", 1);
+        pawnTable = integer(config, "pawns");
+        pawnDoubled = centipawns(config, "pawn.doubled", 1);
+        pawnIsolated = centipawns(config, "pawn.isolated", 1);
+        double[] passed = list(config, "pawn.passed");
+        pawnPassed = new int[passed.length];
+        for (int i = 0; i < passed.length; i++) {
+            pawnPassed[i] = (int) Math.round(passed[i] * CENTI);
+        }
+        pawnFree = centipawns(config, "pawn.free", 1);
+        pawnShield = centipawns(config, "pawn.shield", 1);
 
         /* Piece values */
-        values.put((new Pawn(side)).getClass(),
-                   Double.parseDouble(config.getProperty("Pawn")));
-        values.put((new Knight(side)).getClass(),
-                   Double.parseDouble(config.getProperty("Knight")));
-        values.put((new Bishop(side)).getClass(),
-                   Double.parseDouble(config.getProperty("Bishop")));
-        values.put((new Rook(side)).getClass(),
-                   Double.parseDouble(config.getProperty("Rook")));
-        values.put((new Queen(side)).getClass(),
-                   Double.parseDouble(config.getProperty("Queen")));
-        values.put((new King(side)).getClass(),
-                   Double.parseDouble(config.getProperty("King")));
-        values.put((new Chancellor(side)).getClass(),
-                   Double.parseDouble(config.getProperty("Chancellor")));
-        values.put((new Archbishop(side)).getClass(),
-                   Double.parseDouble(config.getProperty("Archbishop")));
+        rankBonus = new double[Piece.TYPES][];
+        centerBonus = new double[Piece.TYPES];
+        for (int type = 0; type < Piece.TYPES; type++) {
+            String name = Piece.nameOf(type);
+            values[type] = centipawns(config, name, wMaterial);
+            rankBonus[type] = list(config, name + ".rank");
+            centerBonus[type] = Double.parseDouble(
+                config.getProperty(name + ".center", "0"));
+        }
 
         maxDepth = (int) Double.parseDouble(config.getProperty("depth"));
-        wMaterial = Double.parseDouble(config.getProperty("material"));
-        wSafety = Double.parseDouble(config.getProperty("safety"));
-        wMobility = Double.parseDouble(config.getProperty("mobility"));
+        moveTime = seconds(config, "time");
+        clock = seconds(config, "clock");
+        increment = seconds(config, "increment");
+        clockLeft = clock;
+        table = new TranspositionTable(integer(config, "table"));
+        evals = new EvalCache(integer(config, "evals"));
+        nullReduction = integer(config, "null.reduction");
+        nullDepth = integer(config, "null.depth");
+        lmrDepth = integer(config, "lmr.depth");
+        lmrMoves = integer(config, "lmr.moves");
+        lmrReduction = integer(config, "lmr.reduction");
+        aspiration = centipawns(config, "aspiration", 1);
+        parallel = config.getProperty("parallel").trim();
+        splitDepth = integer(config, "ybwc.depth");
+        if ("ybwc".equals(parallel)) {
+            forkJoin = new ForkJoinPool(NTHREADS);
+        }
+    }
+
+    /**
+     * Read an integer setting.
+     *
+     * @param config the configuration
+     * @param name   name of the setting
+     * @return       the value
+     */
+    private static int integer(final Properties config, final String name) {
+        return Integer.parseInt(config.getProperty(name).trim());
+    }
+
+    /**
+     * Read a setting holding a list of numbers.
+     *
+     * @param config the configuration
+     * @param name   name of the setting
+     * @return       the numbers, empty if the setting is missing
+     */
+    private static double[] list(final Properties config, final String name) {
+        String[] words = config.getProperty(name, "").trim().split("\\s+");
+        if (words[0].length() == 0) {
+            return new double[0];
+        }
+        double[] numbers = new double[words.length];
+        for (int i = 0; i < words.length; i++) {
+            numbers[i] = Double.parseDouble(words[i]);
+        }
+        return numbers;
+    }
+
+    /**
+     * Read a setting given in pawns, as weighted centipawns.
+     *
+     * @param config the configuration
+     * @param name   name of the setting
+     * @param weight weight to apply
+     * @return       the value in centipawns
+     */
+    private static int centipawns(final Properties config, final String name,
+                                  final double weight) {
+        return (int) Math.round(Double.parseDouble(config.getProperty(name)) *
+                                weight * CENTI);
+    }
+
+    /**
+     * Read a time setting given in seconds.
+     *
+     * @param config the configuration
+     * @param name   name of the setting
+     * @return       the time in milliseconds
+     */
+    private static long seconds(final Properties config, final String name) {
+        return (long) (Double.parseDouble(config.getProperty(name)) * MILLI);
     }
 
     /**
@@ -163,9 +375,11 @@ public class Minimax implements Player {
     public final Move takeTurn(final Board board,
                                final Piece.Side currentSide) {
         side = currentSide;
+        Board root = board.copy();
+        root.setScoring(squares(root));
 
         /* Gather up every move. */
-        MoveList moves = board.allMoves(side, true);
+        MoveList moves = root.allMoves(side, true);
         moves.shuffle();
 
         /* Initialize the shared structures. */
@@ -174,52 +388,401 @@ public class Minimax implements Player {
             game.setStatus("Thinking ...");
         }
         long startTime = System.currentTimeMillis();
+        long budget = budget();
+        Cancellation token = new Cancellation(0);
+        if (budget > 0) {
+            token = new Cancellation(startTime + budget);
+        }
+
+        Move best;
+        if ("smp".equals(parallel)) {
+            best = searchSmp(root, moves, startTime, budget, token);
+        } else {
+            best = deepen(root, moves, 0, startTime, budget, token, null);
+        }
+
+        if (best == null && !moves.isEmpty()) {
+            best = moves.iterator().next();
+        }
+
+        long time = (System.currentTimeMillis() - startTime);
+        if (clock > 0) {
+            clockLeft += increment - time;
+        }
+        LOG.info("AI took " + (time / MILLI) + " seconds (" +
+                 NTHREADS + " threads, " + reached + " plies, " +
+                 Math.round(evals.hitRate() * PERCENT) +
+                 "% evaluation cache hits)");
+        return best;
+    }
+
+    /**
+     * Lazy SMP: every thread deepens iteratively on its own board, all
+     * of them sharing the transposition table. Helper threads start
+     * from a shuffled move order, half of them a ply deeper, so they
+     * fill the table ahead of the main thread rather than repeat its
+     * work. Only the main thread's result is played. The helpers are
+     * stopped once it is done.
+     *
+     * @param board     the board being played
+     * @param moves     every legal move, for the main thread
+     * @param startTime when this turn started
+     * @param budget    time budget for this turn, or 0
+     * @param token     cancellation token for this turn
+     * @return          the main thread's best move, or null
+     */
+    private Move searchSmp(final Board board, final MoveList moves,
+                           final long startTime, final long budget,
+                           final Cancellation token) {
+        final Cancellation helpers = new Cancellation(token);
+        List<Future<Move>> running = new ArrayList<Future<Move>>();
+        for (int i = 1; i < NTHREADS; i++) {
+            final Board b = board.copy();
+            final MoveList own = b.allMoves(side, true);
+            own.shuffle();
+            final int offset = i % 2;
+            running.add(executor.submit(new Callable<Move>() {
+                public Move call() {
+                    SearchContext ctx = contexts.get();
+                    ctx.prepare(helpers);
+                    return deepen(b, own, offset, 0, 0, helpers, ctx);
+                }
+            }));
+        }
+        final Board b = board.copy();
+        Future<Move> main = executor.submit(new Callable<Move>() {
+            public Move call() {
+                SearchContext ctx = contexts.get();
+                ctx.prepare(token);
+                return deepen(b, moves, 0, startTime, budget, token, ctx);
+            }
+        });
+        Move best = null;
+        try {
+            best = main.get();
+            helpers.cancel();
+            for (Future<Move> helper : running) {
+                helper.get();
+            }
+        } catch (ExecutionException e) {
+            LOG.warning("search failed: " + e.getMessage());
+        } catch (InterruptedException e) {
+            /* the game is being ended: free the workers and leave */
+            LOG.info("search interrupted");
+            token.cancel();
+            Thread.currentThread().interrupt();
+        }
+        helpers.cancel();
+        return best;
+    }
 
+    /**
+     * Deepen one ply at a time until the depth or time runs out.
+     *
+     * @param board     the board being played
+     * @param moves     every legal move, reordered as the search goes
+     * @param offset    plies to search beyond each iteration's depth
+     * @param startTime when this turn started
+     * @param budget    time budget for this turn, or 0
+     * @param token     cancellation token for this turn
+     * @param ctx       this thread's state, or null to search in
+     *                  parallel
+     * @return          the best move found, or null
+     */
+    private Move deepen(final Board board, final MoveList moves,
+                        final int offset, final long startTime,
+                        final long budget, final Cancellation token,
+                        final SearchContext ctx) {
+        /* helpers have no start time, and neither report nor budget */
+        boolean main = startTime != 0;
+        Move best = null;
+        int depth = 0;
+        while (depth < maxDepth) {
+            depth++;
+            int d = Math.min(depth + offset, maxDepth);
+            /* expect about the same score as last time (aspiration) */
+            int lower = -INFINITY;
+            int upper = INFINITY;
+            if (best != null && aspiration > 0) {
+                lower = best.getScore() - aspiration;
+                upper = best.getScore() + aspiration;
+            }
+            Move found = iterate(board, moves, d, startTime, budget, token,
+                                 lower, upper, ctx);
+            if (!token.isCancelled() && found != null &&
+                (found.getScore() <= lower || found.getScore() >= upper)) {
+                /* guessed wrong, so do it again with no window */
+                found = iterate(board, moves, d, startTime, budget, token,
+                                -INFINITY,
+                                INFINITY, ctx);
+            }
+            if (token.isCancelled()) {
+                /* unfinished, so only good if there's nothing else */
+                if (best == null) {
+                    best = found;
+                }
+                depth--;
+                break;
+            }
+            best = found;
+            if (main && (ctx != null || forkJoin != null)) {
+                progress(d, 1, 1, startTime, budget);
+            }
+            long elapsed = System.currentTimeMillis() - startTime;
+            if (budget > 0 && elapsed * NEXT_ITERATION > budget) {
+                /* the next iteration would very likely overrun */
+                break;
+            }
+            moves.sortByScore();
+        }
+        if (main) {
+            reached = depth;
+        }
+        return best;
+    }
+
+    /**
+     * Search every root move to the given depth once.
+     *
+     * @param board     the board being played
+     * @param moves     every legal move, best guesses first
+     * @param depth     depth of this iteration
+     * @param startTime when this turn started
+     * @param budget    time budget for this turn, or 0
+     * @param token     cancellation token for this turn
+     * @param lower     lower bound of the window
+     * @param upper     upper bound of the window
+     * @param ctx       this thread's state, or null to search in
+     *                  parallel
+     * @return          the best move, or null if cancelled before any
+     */
+    private Move iterate(final Board board, final MoveList moves,
+                         final int depth, final long startTime,
+                         final long budget, final Cancellation token,
+                         final int lower, final int upper,
+                         final SearchContext ctx) {
+        if (ctx == null && forkJoin != null) {
+            return splitRoot(board, moves, depth, lower, upper, token);
+        } else if (ctx == null) {
+            return searchRoot(board, moves, depth, startTime, budget, token,
+                              lower, upper);
+        }
+        Move best = null;
+        int alpha = lower;
+        for (Move move : moves) {
+            board.move(move);
+            int v = searchRootMove(board, depth, best == null, alpha,
+                                      upper, ctx);
+            board.undo();
+            if (ctx.isStopped()) {
+                break;
+            }
+            move.setScore(v);
+            if (best == null || v > best.getScore()) {
+                best = move;
+                alpha = Math.max(alpha, v);
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Get the piece-square table for a board, building it from the
+     * configuration if the board size is new. A piece is worth its
+     * value, plus the bonus for its rank counted from its own side
+     * (the last one given holds for any further ranks), plus the
+     * center bonus for every step it stands away from the edges.
+     *
+     * @param b the board
+     * @return  the table for its size
+     */
+    private PieceSquareTable squares(final Board b) {
+        int w = b.getWidth();
+        int h = b.getHeight();
+        if (squares != null && squares.fits(w, h)) {
+            return squares;
+        }
+        PieceSquareTable table = new PieceSquareTable(w, h);
+        for (int type = 0; type < Piece.TYPES; type++) {
+            double[] ranks = rankBonus[type];
+            for (int y = 0; y < h; y++) {
+                double rank = 0;
+                if (ranks.length > 0) {
+                    rank = ranks[Math.min(y, ranks.length - 1)];
+                }
+                for (int x = 0; x < w; x++) {
+                    int steps = Math.min(x, w - 1 - x) +
+                                Math.min(y, h - 1 - y);
+                    double bonus = rank + centerBonus[type] * steps;
+                    table.set(type, x, y, values[type] +
+                              (int) Math.round(bonus * wMaterial * CENTI));
+                }
+            }
+        }
+        squares = table;
+        return table;
+    }
+
+    /**
+     * Time to spend on this move, in milliseconds: the fixed time per
+     * move, or a share of what is left on the clock.
+     *
+     * @return the time budget, or 0 to search to full depth
+     */
+    private long budget() {
+        if (clock > 0) {
+            return Math.max(Math.max(clockLeft, 0) / MOVES_TO_GO + increment,
+                            1);
+        }
+        return moveTime;
+    }
+
+    /**
+     * Search every root move to the given depth, in parallel.
+     *
+     * The first move is searched alone with the full window. Its score
+     * is the bar the other moves, searched in parallel, must beat. Each
+     * of them first gets a null window test against the best score so
+     * far, and a full search only if it beats it.
+     *
+     * @param board     the board being played
+     * @param moves     every legal move, best guesses first
+     * @param depth     depth of this iteration
+     * @param startTime when this turn started
+     * @param budget    time budget for this turn, or 0
+     * @param token     cancellation token for this turn
+     * @param lower     lower bound of the window
+     * @param upper     upper bound of the window
+     * @return          the best move, or null if cancelled before any
+     */
+    private Move searchRoot(final Board board, final MoveList moves,
+                            final int depth, final long startTime,
+                            final long budget, final Cancellation token,
+                            final int lower, final int upper) {
         /* Spin off threads to evaluate each move's tree. */
         CompletionService<Move> service =
             new ExecutorCompletionService<Move>(executor);
         int submitted = 0;
+        int collected = 0;
         bestMove = null;
+        rootAlpha = lower;
         for (final Move move : moves) {
             final Board callboard = board.copy();
+            final boolean first = submitted == 0;
             service.submit(new Callable<Move>() {
                 public Move call() {
+                    if (token.isCancelled()) {
+                        return null;
+                    }
                     callboard.move(move);
-                    double beta = Double.POSITIVE_INFINITY;
-                    if (bestMove != null) {
-                        beta = -bestMove.getScore();
+                    SearchContext ctx = contexts.get();
+                    ctx.prepare(token);
+                    int v = searchRootMove(callboard, depth, first,
+                                              rootAlpha, upper, ctx);
+                    if (ctx.isStopped()) {
+                        return null;
                     }
-                    double v = search(callboard, maxDepth - 1,
-                                      Piece.opposite(side),
-                                      Double.NEGATIVE_INFINITY, beta);
-                    move.setScore(-v);
+                    move.setScore(v);
                     return move;
                 }
             });
             submitted++;
+            if (first) {
+                /* wait for the first move to set the bar */
+                if (!collect(service, token)) {
+                    return bestMove;
+                }
+                collected++;
+                progress(depth, collected, moves.size(), startTime, budget);
+            }
         }
 
         /* Gather up results and pick the best move. */
-        for (int i = 0; i < submitted; i++) {
-            try {
-                Move m = service.take().get();
-                if (bestMove == null || m.getScore() > bestMove.getScore()) {
-                    bestMove = m;
-                }
-            } catch (ExecutionException e) {
-                LOG.warning("move went unevaluated: " + e.getMessage());
-            } catch (InterruptedException e) {
-                LOG.warning("move went unevaluated: " + e.getMessage());
+        while (collected < submitted) {
+            if (!collect(service, token)) {
+                return bestMove;
             }
-            if (game != null) {
-                game.setProgress(i / (1.0f * (submitted - 1)));
+            collected++;
+            progress(depth, collected, submitted, startTime, budget);
+        }
+        return bestMove;
+    }
+
+    /**
+     * Search one root move, already made on the board.
+     *
+     * @param b     board after the move
+     * @param depth depth of this iteration
+     * @param first true for the first root move
+     * @param alpha score the move must beat
+     * @param upper upper bound of the root window
+     * @param ctx   this search thread's state
+     * @return      the move's score
+     */
+    private int searchRootMove(final Board b, final int depth,
+                                  final boolean first, final int alpha,
+                                  final int upper,
+                                  final SearchContext ctx) {
+        Piece.Side opp = Piece.opposite(side);
+        if (first || alpha == -INFINITY) {
+            return -search(b, depth - 1, 1, opp, -upper, -alpha, ctx);
+        }
+        int v = -search(b, depth - 1, 1, opp, -alpha - WINDOW, -alpha,
+                           ctx);
+        if (v > alpha && v < upper && !ctx.isStopped()) {
+            v = -search(b, depth - 1, 1, opp, -upper, -alpha, ctx);
+        }
+        return v;
+    }
+
+    /**
+     * Wait for one root move's result and keep it if it is the best.
+     *
+     * @param service where the root moves were submitted
+     * @param token   cancellation token for this turn
+     * @return        false if interrupted (the game is ending)
+     */
+    private boolean collect(final CompletionService<Move> service,
+                            final Cancellation token) {
+        try {
+            Move m = service.take().get();
+            if (m != null && (bestMove == null ||
+                              m.getScore() > bestMove.getScore())) {
+                bestMove = m;
+                rootAlpha = Math.max(rootAlpha, m.getScore());
             }
+        } catch (ExecutionException e) {
+            LOG.warning("move went unevaluated: " + e.getMessage());
+        } catch (InterruptedException e) {
+            /* the game is being ended: free the workers and leave */
+            LOG.info("search interrupted");
+            token.cancel();
+            Thread.currentThread().interrupt();
+            return false;
         }
+        return true;
+    }
 
-        long time = (System.currentTimeMillis() - startTime);
-        LOG.info("AI took " + (time / MILLI) + " seconds (" +
-                 NTHREADS + " threads, " + maxDepth + " plies)");
-        return bestMove;
+    /**
+     * Report progress on the turn to the game.
+     *
+     * @param depth     depth of this iteration
+     * @param done      root moves finished this iteration
+     * @param total     root moves this iteration
+     * @param startTime when this turn started
+     * @param budget    time budget for this turn, or 0
+     */
+    private void progress(final int depth, final int done, final int total,
+                          final long startTime, final long budget) {
+        if (game == null) {
+            return;
+        }
+        if (budget > 0) {
+            long elapsed = System.currentTimeMillis() - startTime;
+            game.setProgress(Math.min(1f, elapsed / (1f * budget)));
+        } else {
+            game.setProgress((depth - 1 + done / (1f * total)) / maxDepth);
+        }
     }
 
     /**
@@ -227,65 +790,833 @@ public class Minimax implements Player {
      *
      * @param b     board to search
      * @param depth current depth
+     * @param ply   distance from the root
      * @param s     side for current move
      * @param alpha lower bound to check
      * @param beta  upper bound to check
+     * @param ctx   this search thread's state
      * @return      best valuation found at lowest depth
      */
-    private double search(final Board b, final int depth, final Piece.Side s,
-                          final double alpha, final double beta) {
+    private int search(final Board b, final int depth, final int ply,
+                          final Piece.Side s, final int alpha,
+                          final int beta, final SearchContext ctx) {
+        if (ctx.poll()) {
+            return 0;
+        }
         if (depth == 0) {
-            double v = valuate(b);
-            return (s != side) ? -v : v;
+            return quiesce(b, ply, s, alpha, beta, ctx);
+        }
+
+        /* a transposition may already have settled this position */
+        long key = b.getKey();
+        long entry = table.probe(key);
+        if (settles(entry, depth, ply, alpha, beta)) {
+            return fromTable(TranspositionTable.score(entry), ply);
         }
+
         Piece.Side opps = Piece.opposite(s);  // opposite side
-        double best = alpha;
-        MoveList list = b.allMoves(s, true);
-        for (Move move : list) {
-            b.move(move);
-            best = Math.max(best, -search(b, depth - 1, opps, -beta, -best));
-            b.undo();
+        boolean inCheck = b.check(s);
+
+        /* Null move: if passing still fails high, a real move would
+         * too. Not when in check, without a bound to fail high against,
+         * right after another null move, or with only pawns left, where
+         * passing (zugzwang) matters. */
+        if (nullReduction > 0 && depth >= nullDepth && !inCheck &&
+            beta < INFINITY &&
+            b.lastMove() != PackedMove.NONE && hasPieces(b, s)) {
+            b.makeNullMove();
+            int v = -search(b, Math.max(depth - 1 - nullReduction, 0),
+                               ply + 1, opps, -beta, -beta + WINDOW, ctx);
+            b.unmakeNullMove();
+            if (ctx.isStopped()) {
+                return 0;
+            }
+            if (v >= beta) {
+                return beta;
+            }
+        }
+
+        int best = alpha;
+        int bestMove = PackedMove.NONE;
+        MovePicker picker = ctx.picker(ply);
+        picker.start(b, s, entry);
+        int searched = 0;
+        for (int move = picker.next(); move != PackedMove.NONE;
+             move = picker.next()) {
+            b.makeMove(move);
+            if (b.check(s)) {
+                /* illegal, only discovered now that it's been reached */
+                b.unmakeMove();
+                continue;
+            }
+            searched++;
+
+            int v;
+            if (searched == 1 || best == -INFINITY) {
+                /* principal variation: full window */
+                v = -search(b, depth - 1, ply + 1, opps, -beta, -best, ctx);
+            } else {
+                /* Late quiet moves are unlikely to matter: look at them
+                 * with less depth first, and fully only if they
+                 * surprise. */
+                int d = depth - 1;
+                if (lmrReduction > 0 && depth >= lmrDepth &&
+                    searched > lmrMoves && !inCheck && isQuiet(move) &&
+                    !b.check(opps)) {
+                    d = Math.max(depth - 1 - lmrReduction, 0);
+                }
+                /* prove it's no better than the best with a null window */
+                v = -search(b, d, ply + 1, opps, -best - WINDOW, -best, ctx);
+                if (v > best && d < depth - 1) {
+                    v = -search(b, depth - 1, ply + 1, opps, -best - WINDOW,
+                                -best, ctx);
+                }
+                if (v > best && v < beta) {
+                    v = -search(b, depth - 1, ply + 1, opps, -beta, -best,
+                                ctx);
+                }
+            }
+            b.unmakeMove();
+            if (ctx.isStopped()) {
+                return 0;
+            }
+            if (v > best) {
+                best = v;
+                bestMove = move;
+            }
             /* alpha-beta prune */
             if (beta <= best) {
+                ctx.order().cutoff(move, ply, depth);
+                break;
+            }
+        }
+
+        if (searched == 0) {
+            return mate(key, depth, ply, inCheck);
+        }
+        store(key, bestMove, depth, ply, beta, best);
+        return best;
+    }
+
+    /**
+     * Determine if a transposition table entry settles a search
+     * without searching.
+     *
+     * @param entry table entry for the position, or MISS
+     * @param depth depth the search needs
+     * @param ply   distance from the root
+     * @param alpha lower bound to check
+     * @param beta  upper bound to check
+     * @return      true if the entry's score can be returned as is
+     */
+    private static boolean settles(final long entry, final int depth,
+                                   final int ply, final int alpha,
+                                   final int beta) {
+        if (entry == TranspositionTable.MISS ||
+            TranspositionTable.depth(entry) < depth) {
+            return false;
+        }
+        int score = fromTable(TranspositionTable.score(entry), ply);
+        int bound = TranspositionTable.bound(entry);
+        return bound == TranspositionTable.EXACT ||
+               (bound == TranspositionTable.LOWER && score >= beta) ||
+               (bound == TranspositionTable.UPPER && score <= alpha);
+    }
+
+    /**
+     * Store a search result in the transposition table.
+     *
+     * @param key      position key
+     * @param bestMove best move found, or NONE if none beat alpha
+     * @param depth    depth searched
+     * @param ply      distance from the root
+     * @param beta     upper bound the search had
+     * @param best     the result
+     */
+    private void store(final long key, final int bestMove, final int depth,
+                       final int ply, final int beta, final int best) {
+        int bound = TranspositionTable.EXACT;
+        if (best >= beta) {
+            bound = TranspositionTable.LOWER;
+        } else if (bestMove == PackedMove.NONE) {
+            bound = TranspositionTable.UPPER;
+        }
+        table.store(key, bestMove, depth, bound, toTable(best, ply));
+    }
+
+    /**
+     * Score a position without a legal move, and remember it: mate if
+     * in check, sooner being better for the winner, else stalemate.
+     *
+     * @param key     position key
+     * @param depth   depth searched
+     * @param ply     distance from the root
+     * @param inCheck true if the side to move is in check
+     * @return        the score for the side to move
+     */
+    private int mate(final long key, final int depth, final int ply,
+                     final boolean inCheck) {
+        int score = 0;
+        if (inCheck) {
+            score = ply - MATE;
+        }
+        table.store(key, PackedMove.NONE, depth, TranspositionTable.EXACT,
+                    toTable(score, ply));
+        return score;
+    }
+
+    /**
+     * Convert a score for the transposition table. Mate scores count
+     * plies from the root, but in the table they count from the
+     * position itself, so they still hold when it is reached at
+     * another ply.
+     *
+     * @param score the score
+     * @param ply   distance of the position from the root
+     * @return      the score to store
+     */
+    private static int toTable(final int score, final int ply) {
+        if (score > MATE_BOUND) {
+            return score + ply;
+        } else if (score < -MATE_BOUND) {
+            return score - ply;
+        }
+        return score;
+    }
+
+    /**
+     * Convert a score from the transposition table (see toTable()).
+     *
+     * @param score the stored score
+     * @param ply   distance of the position from the root
+     * @return      the score
+     */
+    private static int fromTable(final int score, final int ply) {
+        if (score > MATE_BOUND) {
+            return score - ply;
+        } else if (score < -MATE_BOUND) {
+            return score + ply;
+        }
+        return score;
+    }
+
+    /**
+     * Young brothers wait search of the root moves, on the fork/join
+     * pool. The first move is searched on its own and the rest are
+     * forked together with its score as the bar to beat.
+     *
+     * @param board the board being played
+     * @param moves every legal move, best guesses first
+     * @param depth depth of this iteration
+     * @param lower lower bound of the window
+     * @param upper upper bound of the window
+     * @param token cancellation token for this turn
+     * @return      the best move, or null if cancelled before any
+     */
+    private Move splitRoot(final Board board, final MoveList moves,
+                           final int depth, final int lower,
+                           final int upper, final Cancellation token) {
+        ForkJoinTask<Move> root = forkJoin.submit(new RecursiveTask<Move>() {
+            /** Versioning for object serialization. */
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected Move compute() {
+                Piece.Side opp = Piece.opposite(side);
+                Move best = null;
+                SplitPoint sp = null;
+                List<Split> tasks = new ArrayList<Split>();
+                List<Move> forked = new ArrayList<Move>();
+                for (Move move : moves) {
+                    Board b = board.copy();
+                    b.move(move);
+                    if (sp == null) {
+                        int v = -splitSearch(b, depth - 1, 1, opp,
+                                                -upper, -lower, token);
+                        if (token.isCancelled()) {
+                            return null;
+                        }
+                        move.setScore(v);
+                        best = move;
+                        if (v >= upper) {
+                            return best;
+                        }
+                        sp = new SplitPoint(Math.max(lower, v), upper,
+                                            new Cancellation(token));
+                    } else {
+                        Split task = new Split(sp, b, depth - 1, 0, 1, opp);
+                        tasks.add(task);
+                        forked.add(move);
+                    }
+                }
+                forkAll(tasks);
+                for (int i = 0; i < tasks.size(); i++) {
+                    int v = tasks.get(i).join();
+                    if (v != CUT) {
+                        forked.get(i).setScore(v);
+                        if (v > best.getScore()) {
+                            best = forked.get(i);
+                        }
+                    }
+                }
+                /* moves no better than their bar are only scored for
+                 * ordering, behind the best */
+                for (int i = 0; i < tasks.size(); i++) {
+                    int bound = tasks.get(i).getBound();
+                    if (bound != CUT) {
+                        forked.get(i).setScore(
+                            Math.min(bound, best.getScore() - WINDOW));
+                    }
+                }
                 return best;
             }
+        });
+        try {
+            return root.get();
+        } catch (ExecutionException e) {
+            LOG.warning("search failed: " + e.getMessage());
+        } catch (InterruptedException e) {
+            /* the game is being ended: free the workers and leave */
+            LOG.info("search interrupted");
+            token.cancel();
+            Thread.currentThread().interrupt();
+        }
+        return null;
+    }
+
+    /**
+     * Young brothers wait search (YBWC). The first move is searched
+     * alone, since it is the most likely to cause a cutoff. Once it
+     * hasn't, its younger brothers are forked to be searched in
+     * parallel, and stolen by idle threads. A brother that causes a
+     * cutoff cancels the rest. Near the leaves, where splitting costs
+     * more than it saves, this falls back to the serial search.
+     *
+     * @param b     board to search, owned by the calling task
+     * @param depth current depth
+     * @param ply   distance from the root
+     * @param s     side for current move
+     * @param alpha lower bound to check
+     * @param beta  upper bound to check
+     * @param token cancellation token for this subtree
+     * @return      best valuation found, meaningless if cancelled
+     */
+    private int splitSearch(final Board b, final int depth, final int ply,
+                               final Piece.Side s, final int alpha,
+                               final int beta, final Cancellation token) {
+        SearchContext ctx = contexts.get();
+        if (depth < splitDepth) {
+            ctx.prepare(token);
+            return search(b, depth, ply, s, alpha, beta, ctx);
+        }
+        if (token.isCancelled()) {
+            return 0;
+        }
+        long key = b.getKey();
+        long entry = table.probe(key);
+        if (settles(entry, depth, ply, alpha, beta)) {
+            return fromTable(TranspositionTable.score(entry), ply);
+        }
+
+        Piece.Side opps = Piece.opposite(s);
+        boolean inCheck = b.check(s);
+        if (nullReduction > 0 && depth >= nullDepth && !inCheck &&
+            beta < INFINITY &&
+            b.lastMove() != PackedMove.NONE && hasPieces(b, s)) {
+            b.makeNullMove();
+            int v = -splitSearch(b, Math.max(depth - 1 - nullReduction, 0),
+                                    ply + 1, opps, -beta, -beta + WINDOW,
+                                    token);
+            b.unmakeNullMove();
+            if (token.isCancelled()) {
+                return 0;
+            }
+            if (v >= beta) {
+                return beta;
+            }
+        }
+
+        /* Order the moves all at once: while this task waits on its
+         * brothers, the thread may run other tasks over the same ply's
+         * ordering scores. Likewise the list is this node's own. */
+        PackedMoveList list = new PackedMoveList();
+        b.generatePseudo(s, list);
+        ctx.order().score(b, list, ply, entry);
+        for (int i = 0; i < list.size(); i++) {
+            ctx.order().pick(list, ply, i);
+        }
+
+        int best = alpha;
+        int bestMove = PackedMove.NONE;
+        SplitPoint sp = null;
+        List<Split> tasks = new ArrayList<Split>();
+        PackedMoveList forked = new PackedMoveList();
+        for (int i = 0; i < list.size(); i++) {
+            int move = list.get(i);
+            if (sp == null) {
+                /* the eldest brother */
+                b.makeMove(move);
+                if (b.check(s)) {
+                    b.unmakeMove();
+                    continue;
+                }
+                int v = -splitSearch(b, depth - 1, ply + 1, opps, -beta,
+                                        -best, token);
+                b.unmakeMove();
+                if (token.isCancelled()) {
+                    return 0;
+                }
+                if (v > best) {
+                    best = v;
+                    bestMove = move;
+                }
+                if (best >= beta) {
+                    break;
+                }
+                sp = new SplitPoint(best, beta, new Cancellation(token));
+            } else {
+                Board child = b.copy();
+                child.makeMove(move);
+                if (child.check(s)) {
+                    continue;
+                }
+                int reduce = 0;
+                if (lmrReduction > 0 && depth >= lmrDepth &&
+                    tasks.size() + 1 >= lmrMoves && !inCheck &&
+                    isQuiet(move) && !child.check(opps)) {
+                    reduce = Math.min(lmrReduction, depth - 1);
+                }
+                Split task = new Split(sp, child, depth - 1, reduce, ply + 1,
+                                       opps);
+                tasks.add(task);
+                forked.add(move);
+            }
         }
+        forkAll(tasks);
+        for (int i = 0; i < tasks.size(); i++) {
+            int v = tasks.get(i).join();
+            if (v != CUT && v > best) {
+                best = v;
+                bestMove = forked.get(i);
+            }
+        }
+        if (token.isCancelled()) {
+            return 0;
+        }
+        if (sp == null && bestMove == PackedMove.NONE) {
+            return mate(key, depth, ply, inCheck);
+        }
+        if (best >= beta) {
+            contexts.get().order().cutoff(bestMove, ply, depth);
+        }
+        store(key, bestMove, depth, ply, beta, best);
         return best;
     }
 
     /**
-     * Determine value of this board.
+     * Fork younger brothers, the most promising last. This thread runs
+     * its own forks newest first, while idle threads steal the oldest.
      *
-     * @param b board to be valuated
-     * @return  valuation of this board
+     * @param tasks the brothers, best guesses first
+     */
+    private static void forkAll(final List<Split> tasks) {
+        for (int i = tasks.size() - 1; i >= 0; i--) {
+            tasks.get(i).fork();
+        }
+    }
+
+    /**
+     * Bounds shared by the brothers forked at one node.
+     */
+    private static final class SplitPoint {
+
+        /** Best score so far: the bar each brother must beat. */
+        private volatile int alpha;
+
+        /** Upper bound at the node. */
+        private final int beta;
+
+        /** Cancelled when one brother causes a cutoff. */
+        private final Cancellation token;
+
+        /**
+         * Create a split point.
+         *
+         * @param best   the eldest brother's score
+         * @param bound  upper bound at the node
+         * @param cancel token for the brothers
+         */
+        SplitPoint(final int best, final int bound,
+                   final Cancellation cancel) {
+            alpha = best;
+            beta = bound;
+            token = cancel;
+        }
+
+        /**
+         * Report a brother's score, raising alpha and cutting off the
+         * other brothers if need be.
+         *
+         * @param v the brother's score
+         */
+        synchronized void raise(final int v) {
+            if (v > alpha) {
+                alpha = v;
+            }
+            if (v >= beta) {
+                token.cancel();
+            }
+        }
+    }
+
+    /**
+     * Task searching one younger brother at a split point.
      */
-    private double valuate(final Board b) {
-        double material = materialValue(b);
-        double kingSafety = kingInsafetyValue(b);
-        double mobility = mobilityValue(b);
-        return material * wMaterial +
+    private final class Split extends RecursiveTask<Integer> {
+
+        /** Versioning for object serialization. */
+        private static final long serialVersionUID = 1L;
+
+        /** The split point this brother belongs to. */
+        private final SplitPoint sp;
+
+        /** Board after the brother's move, owned by this task. */
+        private final Board board;
+
+        /** Depth left below the move. */
+        private final int depth;
+
+        /** Plies to reduce the null window test by (late moves). */
+        private final int reduce;
+
+        /** Distance of the board from the root. */
+        private final int ply;
+
+        /** Side to move on the board. */
+        private final Piece.Side s;
+
+        /**
+         * Upper bound on the score, once it has proved no better than
+         * the bar it was tested against, or else CUT.
+         */
+        private int bound = CUT;
+
+        /**
+         * Create a task.
+         *
+         * @param point split point of the node
+         * @param b     board after the move
+         * @param left  depth left below the move
+         * @param less  plies to reduce the null window test by
+         * @param dist  distance of the board from the root
+         * @param toMove side to move on the board
+         */
+        Split(final SplitPoint point, final Board b, final int left,
+              final int less, final int dist, final Piece.Side toMove) {
+            sp = point;
+            board = b;
+            depth = left;
+            reduce = less;
+            ply = dist;
+            s = toMove;
+        }
+
+        /**
+         * Search the brother, first with a null window against the best
+         * score so far, reduced if it is a late quiet move.
+         *
+         * The bar may have been raised by a later brother finished
+         * first, so a brother failing low against it is only known to
+         * be no better than that brother, and must not be taken for it.
+         *
+         * @return the brother's score (from the node's point of view),
+         *         or CUT if it was cut off or proved no better than the
+         *         bar (see getBound())
+         */
+        @Override
+        protected Integer compute() {
+            Cancellation token = sp.token;
+            if (token.isCancelled()) {
+                return CUT;
+            }
+            int a = sp.alpha;
+            int v;
+            if (a == -INFINITY) {
+                v = -splitSearch(board, depth, ply, s, -sp.beta, -a, token);
+            } else {
+                v = -splitSearch(board, depth - reduce, ply, s, -a - WINDOW,
+                                 -a, token);
+                if (v > a && reduce > 0 && !token.isCancelled()) {
+                    v = -splitSearch(board, depth, ply, s, -a - WINDOW, -a,
+                                     token);
+                }
+                if (v > a && v < sp.beta && !token.isCancelled()) {
+                    v = -splitSearch(board, depth, ply, s, -sp.beta, -a,
+                                     token);
+                }
+            }
+            if (token.isCancelled()) {
+                return CUT;
+            }
+            if (v <= a) {
+                bound = v;
+                return CUT;
+            }
+            sp.raise(v);
+            return v;
+        }
+
+        /**
+         * Get the upper bound on the score of a brother that proved no
+         * better than its bar. Only meaningful once joined.
+         *
+         * @return the bound, or CUT if the brother was cut off or scored
+         */
+        int getBound() {
+            return bound;
+        }
+    }
+
+    /**
+     * Quiescence search: follow captures and promotions past the
+     * nominal depth until the position is quiet, so the evaluation
+     * never lands in the middle of an exchange.
+     *
+     * The side to move may always decline to capture ("stand pat"),
+     * so the static evaluation is a lower bound. Captures that could
+     * not lift the score to alpha even if they won their victim
+     * outright, plus a margin, are skipped (delta pruning).
+     *
+     * @param b     board to search
+     * @param ply   distance from the root
+     * @param s     side for current move
+     * @param alpha lower bound to check
+     * @param beta  upper bound to check
+     * @param ctx   this search thread's state
+     * @return      best valuation found
+     */
+    private int quiesce(final Board b, final int ply, final Piece.Side s,
+                           final int alpha, final int beta,
+                           final SearchContext ctx) {
+        if (ctx.poll()) {
+            return 0;
+        }
+        int v = valuate(b, ctx.pawns());
+        int standPat = (s != side) ? -v : v;
+        if (standPat >= beta) {
+            return standPat;
+        }
+        int best = Math.max(alpha, standPat);
+
+        /* only the captures and promotions that don't lose */
+        PackedMoveList list = ctx.list(ply);
+        list.clear();
+        b.generateCaptures(s, list);
+        int n = 0;
+        for (int i = 0; i < list.size(); i++) {
+            int move = list.get(i);
+            if (!loses(b, move)) {
+                list.set(n++, move);
+            }
+        }
+        list.truncate(n);
+
+        Piece.Side opps = Piece.opposite(s);
+        MoveOrder order = ctx.order();
+        order.score(b, list, ply, TranspositionTable.MISS);
+        int margin = DELTA_PAWNS * values[Piece.PAWN];
+        for (int i = 0; i < list.size(); i++) {
+            int move = order.pick(list, ply, i);
+            if (PackedMove.flag(move) != PackedMove.PROMOTION &&
+                standPat + gain(move) + margin <= best) {
+                continue;
+            }
+            b.makeMove(move);
+            if (b.check(s)) {
+                b.unmakeMove();
+                continue;
+            }
+            int score = -quiesce(b, ply + 1, opps, -beta, -best, ctx);
+            b.unmakeMove();
+            if (ctx.isStopped()) {
+                return 0;
+            }
+            if (score > best) {
+                best = score;
+                if (best >= beta) {
+                    break;
+                }
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Determine if a move neither captures nor promotes.
+     *
+     * @param move packed move
+     * @return     true if quiet
+     */
+    private static boolean isQuiet(final int move) {
+        return !PackedMove.isCapture(move) &&
+               PackedMove.flag(move) != PackedMove.PROMOTION;
+    }
+
+    /**
+     * Determine if a side has anything besides pawns and its king.
+     *
+     * @param b board to look at
+     * @param s side to look for
+     * @return  true if the side has a piece
+     */
+    private static boolean hasPieces(final Board b, final Piece.Side s) {
+        long lo = b.getOccupied(s) & ~b.getPieces(s, Piece.PAWN) &
+                  ~b.getPieces(s, Piece.KING);
+        long hi = b.getOccupiedHigh(s) & ~b.getPiecesHigh(s, Piece.PAWN) &
+                  ~b.getPiecesHigh(s, Piece.KING);
+        return (lo | hi) != 0;
+    }
+
+    /**
+     * Determine if a capture or promotion loses material once the
+     * exchange on its square plays out (see Board.exchange()).
+     *
+     * @param b    board the move is for
+     * @param move packed capture or promotion
+     * @return     true if it loses
+     */
+    private boolean loses(final Board b, final int move) {
+        if (PackedMove.flag(move) != PackedMove.PROMOTION &&
+            gain(move) >= values[PackedMove.piece(move)]) {
+            return false;
+        }
+        return b.exchange(move, values) < 0;
+    }
+
+    /**
+     * Material an evaluation gains from a capture.
+     *
+     * @param move packed capture
+     * @return     weighted value of the captured piece
+     */
+    private int gain(final int move) {
+        return values[PackedMove.captured(move)];
+    }
+
+    /**
+     * Determine value of this board, from the evaluation cache if it
+     * has been seen before.
+     *
+     * @param b     board to be valuated
+     * @param pawns this thread's pawn table
+     * @return      valuation of this board, in centipawns
+     */
+    private int valuate(final Board b, final PawnTable pawns) {
+        /* cached from white's side, so both players' turns share it */
+        long key = b.getKey();
+        int cached = evals.probe(key);
+        if (cached != EvalCache.MISS) {
+            return cached * side.value();
+        }
+        int score = evaluate(b, pawns);
+        evals.store(key, score * side.value());
+        return score;
+    }
+
+    /**
+     * Evaluate a board from scratch, without the evaluation cache.
+     *
+     * @param b     board to be evaluated
+     * @param pawns this thread's pawn table
+     * @return      valuation of this board, in centipawns
+     */
+    private int evaluate(final Board b, final PawnTable pawns) {
+        int material = materialValue(b);
+        int kingSafety = kingInsafetyValue(b);
+        int mobility = mobilityValue(b);
+        return material +
                kingSafety * wSafety +
-               mobility * wMobility;
+               mobility * wMobility +
+               pawnValue(b, pawns);
+    }
+
+    /**
+     * Pawn structure score: doubled, isolated and passed pawns from the
+     * pawn table, plus what depends on other pieces too, passed pawns
+     * free to advance and pawns sheltering their king.
+     *
+     * @param b     board to be evaluated
+     * @param pawns this thread's pawn table
+     * @return      pawn structure score
+     */
+    private int pawnValue(final Board b, final PawnTable pawns) {
+        int entry = pawns.probe(b);
+        Piece.Side opp = Piece.opposite(side);
+        int free = free(b, pawns, entry, side) - free(b, pawns, entry, opp);
+        int shield = shield(b, side) - shield(b, opp);
+        return pawns.score(entry) * side.value() + free * pawnFree +
+               shield * pawnShield;
     }
 
     /**
-     * Add up the material value of the board only.
+     * Count a side's passed pawns with nothing in front of them.
+     *
+     * @param b     board to be evaluated
+     * @param pawns this thread's pawn table
+     * @param entry the board's pawn table entry
+     * @param s     side to count for
+     * @return      number of free passed pawns
+     */
+    private static int free(final Board b, final PawnTable pawns,
+                            final int entry, final Piece.Side s) {
+        long lo = pawns.passedLow(entry, s);
+        long hi = pawns.passedHigh(entry, s);
+        if ((lo | hi) == 0) {
+            return 0;
+        }
+        int n = s.value() * b.getWidth();
+        long aheadLo = Geometry.shiftLow(lo, hi, n) & ~b.getOccupied();
+        long aheadHi = Geometry.shiftHigh(lo, hi, n) & ~b.getOccupiedHigh();
+        return Long.bitCount(aheadLo) + Long.bitCount(aheadHi);
+    }
+
+    /**
+     * Count a side's pawns sheltering its king: those on the three
+     * squares in front of it.
      *
      * @param b board to be evaluated
-     * @return  material value of the board
+     * @param s side of the king
+     * @return  number of pawns in the shield
      */
-    private double materialValue(final Board b) {
-        double value = 0;
-        for (int y = 0; y < b.getHeight(); y++) {
-            for (int x = 0; x < b.getWidth(); x++) {
-                Position pos = new Position(x, y);
-                Piece p = b.getPiece(pos);
-                if (p != null) {
-                    value += values.get(p.getClass()) * p.getSide().value();
-                }
+    private static int shield(final Board b, final Piece.Side s) {
+        int king = b.getKingSquare(s);
+        if (king < 0) {
+            return 0;
+        }
+        Geometry g = b.getGeometry();
+        long lo = g.pawnLow(s, king);
+        long hi = g.pawnHigh(s, king);
+        int ahead = king + s.value() * b.getWidth();
+        if (ahead >= 0 && ahead < b.getWidth() * b.getHeight()) {
+            if (ahead < Long.SIZE) {
+                lo |= 1L << ahead;
+            } else {
+                hi |= 1L << (ahead - Long.SIZE);
             }
         }
-        return value * side.value();
+        return Long.bitCount(lo & b.getPieces(s, Piece.PAWN)) +
+               Long.bitCount(hi & b.getPiecesHigh(s, Piece.PAWN));
+    }
+
+    /**
+     * Material and placement value of the board, which the board keeps
+     * up to date as pieces move (see squares()).
+     *
+     * @param b board to be evaluated
+     * @return  material value of the board
+     */
+    private int materialValue(final Board b) {
+        return b.getScore(side);
     }
 
     /**
@@ -294,30 +1625,30 @@ public class Minimax implements Player {
      * @param b board to be evaluated
      * @return  king insafety score
      */
-    private double kingInsafetyValue(final Board b) {
+    private int kingInsafetyValue(final Board b) {
         return kingInsafetyValue(b, Piece.opposite(side)) -
                kingInsafetyValue(b, side);
     }
 
     /**
-     * Helper function: determine safety of a single king.
+     * Helper function: determine safety of a single king, by the
+     * squares it could reach if it moved like a queen.
      *
      * @param b board to be evaluated
      * @param s side of king to be checked
      * @return king insafety score
      */
-    private double kingInsafetyValue(final Board b, final Piece.Side s) {
-        /* Trace lines away from the king and count the spaces. */
-        Position king = b.findKing(s);
-        if (king == null) {
-            /* Weird, but may happen during evaluation. */
-            return Double.POSITIVE_INFINITY;
+    private int kingInsafetyValue(final Board b, final Piece.Side s) {
+        int king = b.getKingSquare(s);
+        if (king < 0) {
+            /* Weird, but may happen while editing a board. */
+            return 0;
         }
-        MoveList list = new MoveList(b, false);
-        /* Take advantage of the Rook and Bishop code. */
-        Rook.getMoves(b.getPiece(king), list);
-        Bishop.getMoves(b.getPiece(king), list);
-        return list.size();
+        long lo = (b.getRookAttacks(king) | b.getBishopAttacks(king)) &
+                  ~b.getOccupied(s);
+        long hi = (b.getRookAttacksHigh(king) |
+                   b.getBishopAttacksHigh(king)) & ~b.getOccupiedHigh(s);
+        return Long.bitCount(lo) + Long.bitCount(hi);
     }
 
     /**
@@ -326,8 +1657,7 @@ public class Minimax implements Player {
      * @param b board to be evaluated
      * @return  score for this board
      */
-    private double mobilityValue(final Board b) {
-        return b.allMoves(side, false).size() -
-               b.allMoves(Piece.opposite(side), false).size();
+    private int mobilityValue(final Board b) {
+        return b.mobility(side) - b.mobility(Piece.opposite(side));
     }
 }
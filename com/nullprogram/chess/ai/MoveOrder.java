@@ -0,0 +1,320 @@
+package com.nullprogram.chess.ai;
+
+import com.nullprogram.chess.Board;
+import com.nullprogram.chess.Geometry;
+import com.nullprogram.chess.PackedMove;
+import com.nullprogram.chess.PackedMoveList;
+import com.nullprogram.chess.Piece;
+import java.util.Arrays;
+
+/**
+ * Decides the order in which the search tries moves. Alpha-beta
+ * prunes the most when the best move comes first, so moves are tried
+ * in this order:
+ *
+ * <ol>
+ * <li>the transposition table's best move for the position,</li>
+ * <li>captures and promotions that don't lose material, most
+ *     valuable victim first and then least valuable attacker first
+ *     (MVV-LVA),</li>
+ * <li>killers: quiet moves that caused a cutoff at the same ply,</li>
+ * <li>captures that lose material by static exchange evaluation
+ *     (see Board.exchange()), least lost first,</li>
+ * <li>other quiet moves, by how often they have caused cutoffs
+ *     anywhere (the history heuristic).</li>
+ * </ol>
+ *
+ * Killers and history are learned as the search goes, so each search
+ * thread keeps its own MoveOrder and nothing is shared.
+ */
+final class MoveOrder {
+
+    /** Score of the transposition table move. */
+    private static final int HASH = 1 << 30;
+
+    /** Base score of captures and promotions. */
+    private static final int CAPTURE = 1 << 28;
+
+    /** Base score of killer moves. */
+    private static final int KILLER = 1 << 27;
+
+    /** History scores are halved once one passes this. */
+    private static final int HISTORY_MAX = 1 << 26;
+
+    /** Victim weight relative to attacker rank in MVV-LVA. */
+    private static final int VICTIM = 64;
+
+    /** Rough value rank of each piece type, for MVV-LVA only. */
+    private static final int[] RANK = {1, 3, 3, 5, 9, 12, 8, 7};
+
+    /** Score of a capture losing nothing, less what it does lose. */
+    private static final int LOSING = KILLER - 1;
+
+    /** Killer moves kept per ply. */
+    private static final int KILLERS = 2;
+
+    /** Starting length of a ply's score array. */
+    private static final int MOVES = 256;
+
+    /** Starting number of plies. */
+    private static final int PLIES = 64;
+
+    /** Piece values, for static exchange evaluation. */
+    private final int[] values;
+
+    /** Killer moves, indexed by ply. */
+    private int[][] killers = new int[PLIES][KILLERS];
+
+    /** Cutoff history, indexed by side, origin and destination. */
+    private final int[] history =
+        new int[2 * Geometry.MAX_SQUARES * Geometry.MAX_SQUARES];
+
+    /** Move scores, indexed by ply, parallel to that ply's move list. */
+    private int[][] scores = new int[PLIES][];
+
+    /**
+     * Create move ordering tables.
+     *
+     * @param pieceValues value of each piece type
+     */
+    MoveOrder(final int[] pieceValues) {
+        values = pieceValues;
+    }
+
+    /**
+     * Forget what was learned on earlier turns: clear the killers and
+     * fade the history.
+     */
+    void age() {
+        for (int[] k : killers) {
+            Arrays.fill(k, PackedMove.NONE);
+        }
+        for (int i = 0; i < history.length; i++) {
+            history[i] /= 2;
+        }
+    }
+
+    /**
+     * Score every move in a freshly generated list.
+     *
+     * @param b     the board the moves are for
+     * @param list  the moves
+     * @param ply   distance from the root
+     * @param entry transposition table entry for the position, or MISS
+     */
+    void score(final Board b, final PackedMoveList list, final int ply,
+               final long entry) {
+        score(b, list, 0, ply, entry);
+    }
+
+    /**
+     * Score the moves appended to a list from the given index on,
+     * keeping the scores of those before it.
+     *
+     * @param b     the board the moves are for
+     * @param list  the moves
+     * @param start index of the first move to score
+     * @param ply   distance from the root
+     * @param entry transposition table entry for the position, or MISS
+     */
+    void score(final Board b, final PackedMoveList list, final int start,
+               final int ply, final long entry) {
+        grow(ply);
+        int[] s = scores[ply];
+        if (s == null) {
+            s = new int[Math.max(list.size(), MOVES)];
+            scores[ply] = s;
+        } else if (s.length < list.size()) {
+            s = Arrays.copyOf(s, list.size() * 2);
+            scores[ply] = s;
+        }
+        int[] k = killers[ply];
+        for (int i = start; i < list.size(); i++) {
+            int move = list.get(i);
+            if (entry != TranspositionTable.MISS &&
+                TranspositionTable.sameMove(entry, move)) {
+                s[i] = HASH;
+            } else if (!isQuiet(move)) {
+                int lost = losing(b, move);
+                if (lost < 0) {
+                    s[i] = LOSING + lost;
+                } else {
+                    s[i] = CAPTURE + victim(move) * VICTIM -
+                           RANK[PackedMove.piece(move)];
+                }
+            } else if (move == k[0]) {
+                s[i] = KILLER + 1;
+            } else if (move == k[1]) {
+                s[i] = KILLER;
+            } else {
+                s[i] = history[index(move)];
+            }
+        }
+    }
+
+    /**
+     * Select the best remaining move, moving it to position i. Sorting
+     * lazily like this saves work when a cutoff comes early.
+     *
+     * @param list moves scored with score()
+     * @param ply  distance from the root
+     * @param i    how many moves have already been picked
+     * @return     the move to try next
+     */
+    int pick(final PackedMoveList list, final int ply, final int i) {
+        int[] s = scores[ply];
+        int best = i;
+        for (int j = i + 1; j < list.size(); j++) {
+            if (s[j] > s[best]) {
+                best = j;
+            }
+        }
+        int move = list.get(best);
+        if (best != i) {
+            list.set(best, list.get(i));
+            list.set(i, move);
+            int tmp = s[best];
+            s[best] = s[i];
+            s[i] = tmp;
+        }
+        return move;
+    }
+
+    /**
+     * Determine if a move picked by pick() is a capture that loses
+     * material, or anything ordered after those.
+     *
+     * @param ply distance from the root
+     * @param i   position the move was picked into
+     * @return    true if it scored below the killers
+     */
+    boolean isLosing(final int ply, final int i) {
+        return scores[ply][i] < KILLER;
+    }
+
+    /**
+     * Get one of the killer moves for a ply.
+     *
+     * @param ply distance from the root
+     * @param i   which killer, most recent first
+     * @return    the killer, or PackedMove.NONE
+     */
+    int killer(final int ply, final int i) {
+        if (ply >= killers.length) {
+            return PackedMove.NONE;
+        }
+        return killers[ply][i];
+    }
+
+    /**
+     * Get the number of killer moves kept per ply.
+     *
+     * @return number of killers
+     */
+    static int killers() {
+        return KILLERS;
+    }
+
+    /**
+     * Learn from a move that caused a beta cutoff.
+     *
+     * @param move  the move
+     * @param ply   distance from the root
+     * @param depth remaining depth where it happened
+     */
+    void cutoff(final int move, final int ply, final int depth) {
+        if (!isQuiet(move)) {
+            return;
+        }
+        grow(ply);
+        int[] k = killers[ply];
+        if (k[0] != move) {
+            k[1] = k[0];
+            k[0] = move;
+        }
+        int i = index(move);
+        history[i] += depth * depth;
+        if (history[i] > HISTORY_MAX) {
+            for (int j = 0; j < history.length; j++) {
+                history[j] /= 2;
+            }
+        }
+    }
+
+    /**
+     * Make room in the per-ply tables for the given ply.
+     *
+     * @param ply distance from the root
+     */
+    private void grow(final int ply) {
+        if (ply >= scores.length) {
+            scores = Arrays.copyOf(scores, ply * 2);
+        }
+        if (ply >= killers.length) {
+            int old = killers.length;
+            killers = Arrays.copyOf(killers, ply * 2);
+            for (int i = old; i < killers.length; i++) {
+                killers[i] = new int[KILLERS];
+            }
+        }
+    }
+
+    /**
+     * Determine if a move neither captures nor promotes.
+     *
+     * @param move packed move
+     * @return     true if quiet
+     */
+    private static boolean isQuiet(final int move) {
+        return !PackedMove.isCapture(move) &&
+               PackedMove.flag(move) != PackedMove.PROMOTION;
+    }
+
+    /**
+     * Static exchange value of a capture or promotion, if it loses. A
+     * capture of a piece worth at least the capturer can't lose, so
+     * only the others are worked out.
+     *
+     * @param b    the board the move is for
+     * @param move packed move
+     * @return     material lost (negative), or 0 if none
+     */
+    private int losing(final Board b, final int move) {
+        if (PackedMove.flag(move) != PackedMove.PROMOTION &&
+            values[PackedMove.captured(move)] >=
+            values[PackedMove.piece(move)]) {
+            return 0;
+        }
+        return Math.min(b.exchange(move, values), 0);
+    }
+
+    /**
+     * Rank of what a move wins: the captured piece, plus a queen for a
+     * promotion.
+     *
+     * @param move packed move
+     * @return     victim rank
+     */
+    private static int victim(final int move) {
+        int rank = 0;
+        if (PackedMove.isCapture(move)) {
+            rank += RANK[PackedMove.captured(move)];
+        }
+        if (PackedMove.flag(move) == PackedMove.PROMOTION) {
+            rank += RANK[Piece.QUEEN];
+        }
+        return rank;
+    }
+
+    /**
+     * History table index of a move.
+     *
+     * @param move packed move
+     * @return     index into history
+     */
+    private static int index(final int move) {
+        int side = PackedMove.side(move).ordinal();
+        return (side * Geometry.MAX_SQUARES + PackedMove.from(move)) *
+               Geometry.MAX_SQUARES + PackedMove.to(move);
+    }
+}
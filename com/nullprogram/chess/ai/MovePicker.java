@@ -0,0 +1,205 @@
+package com.nullprogram.chess.ai;
+
+import com.nullprogram.chess.Board;
+import com.nullprogram.chess.PackedMove;
+import com.nullprogram.chess.PackedMoveList;
+import com.nullprogram.chess.Piece;
+
+/**
+ * Hands out a node's moves one at a time, generating them in stages:
+ *
+ * <ol>
+ * <li>the transposition table's best move, checked against the board
+ *     rather than generated,</li>
+ * <li>captures and promotions that don't lose material,</li>
+ * <li>killers, checked against the board the same way,</li>
+ * <li>captures that lose material,</li>
+ * <li>quiet moves.</li>
+ * </ol>
+ *
+ * Each stage is only reached once the one before it has run out, so a
+ * node that cuts off on the hash move or a capture never generates its
+ * quiet moves at all. The order within a stage is MoveOrder's. One
+ * picker serves each ply of a search thread, reusing its move list.
+ */
+final class MovePicker {
+
+    /** Stage: the transposition table move. */
+    private static final int HASH = 0;
+
+    /** Stage: generate the captures and promotions. */
+    private static final int GENERATE_CAPTURES = 1;
+
+    /** Stage: captures that don't lose material. */
+    private static final int CAPTURES = 2;
+
+    /** Stage: killer moves. */
+    private static final int KILLERS = 3;
+
+    /** Stage: captures that lose material. */
+    private static final int LOSING = 4;
+
+    /** Stage: generate the quiet moves. */
+    private static final int GENERATE_QUIETS = 5;
+
+    /** Stage: quiet moves. */
+    private static final int QUIETS = 6;
+
+    /** Stage: nothing left. */
+    private static final int DONE = 7;
+
+    /** Move ordering of the search thread. */
+    private final MoveOrder order;
+
+    /** Moves generated so far at this ply. */
+    private final PackedMoveList list;
+
+    /** Distance from the root. */
+    private final int ply;
+
+    /** Board being searched. */
+    private Board board;
+
+    /** Side to move. */
+    private Piece.Side side;
+
+    /** Current stage. */
+    private int stage;
+
+    /** Next position in the list to pick into. */
+    private int next;
+
+    /** Killers checked so far. */
+    private int killer;
+
+    /** Moves already handed out ahead of their stage, to be skipped. */
+    private final int[] early = new int[1 + MoveOrder.killers()];
+
+    /** Number of moves in early. */
+    private int earlyCount;
+
+    /**
+     * Create a picker for one ply of a search thread.
+     *
+     * @param moveOrder the thread's move ordering
+     * @param moves     the thread's move list for the ply
+     * @param depth     distance from the root
+     */
+    MovePicker(final MoveOrder moveOrder, final PackedMoveList moves,
+               final int depth) {
+        order = moveOrder;
+        list = moves;
+        ply = depth;
+    }
+
+    /**
+     * Start on a new node.
+     *
+     * @param b     board to search
+     * @param s     side to move
+     * @param entry transposition table entry for the position, or MISS
+     */
+    void start(final Board b, final Piece.Side s, final long entry) {
+        board = b;
+        side = s;
+        stage = HASH;
+        next = 0;
+        killer = 0;
+        earlyCount = 0;
+        list.clear();
+        if (entry != TranspositionTable.MISS) {
+            int move = TranspositionTable.move(entry);
+            move = b.findMove(s, PackedMove.from(move), PackedMove.to(move));
+            if (move != PackedMove.NONE) {
+                early[earlyCount++] = move;
+            }
+        }
+    }
+
+    /**
+     * Get the next move to try. Moves are pseudo-legal: the caller
+     * tests whether each leaves its king in check.
+     *
+     * @return the move, or PackedMove.NONE when there are no more
+     */
+    int next() {
+        while (true) {
+            switch (stage) {
+            case HASH:
+                stage = GENERATE_CAPTURES;
+                if (earlyCount > 0) {
+                    return early[0];
+                }
+                break;
+            case GENERATE_CAPTURES:
+                board.generateCaptures(side, list);
+                order.score(board, list, ply, TranspositionTable.MISS);
+                stage = CAPTURES;
+                break;
+            case CAPTURES:
+                while (next < list.size()) {
+                    int move = order.pick(list, ply, next);
+                    if (order.isLosing(ply, next)) {
+                        break;
+                    }
+                    next++;
+                    if (!isEarly(move)) {
+                        return move;
+                    }
+                }
+                stage = KILLERS;
+                break;
+            case KILLERS:
+                while (killer < MoveOrder.killers()) {
+                    int move = order.killer(ply, killer++);
+                    if (board.isPseudoLegal(move) && !isEarly(move)) {
+                        early[earlyCount++] = move;
+                        return move;
+                    }
+                }
+                stage = LOSING;
+                break;
+            case LOSING:
+                while (next < list.size()) {
+                    int move = order.pick(list, ply, next++);
+                    if (!isEarly(move)) {
+                        return move;
+                    }
+                }
+                stage = GENERATE_QUIETS;
+                break;
+            case GENERATE_QUIETS:
+                board.generateQuiets(side, list);
+                order.score(board, list, next, ply, TranspositionTable.MISS);
+                stage = QUIETS;
+                break;
+            case QUIETS:
+                while (next < list.size()) {
+                    int move = order.pick(list, ply, next++);
+                    if (!isEarly(move)) {
+                        return move;
+                    }
+                }
+                stage = DONE;
+                break;
+            default:
+                return PackedMove.NONE;
+            }
+        }
+    }
+
+    /**
+     * Determine if a move was already handed out ahead of its stage.
+     *
+     * @param move packed move
+     * @return     true if it was
+     */
+    private boolean isEarly(final int move) {
+        for (int i = 0; i < earlyCount; i++) {
+            if (early[i] == move) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,198 @@
+package com.nullprogram.chess.ai;
+
+import com.nullprogram.chess.Board;
+import com.nullprogram.chess.Piece;
+import java.util.Arrays;
+
+/**
+ * Pawn structure evaluation, cached by the board's pawn key.
+ *
+ * Doubled, isolated and passed pawns depend on the pawns alone, which
+ * rarely change within a subtree, so nearly every leaf finds its pawn
+ * structure already scored. Each entry keeps the score and each side's
+ * passed pawns, for terms that also depend on the other pieces. Each
+ * search thread has its own table, so nothing here is synchronized.
+ */
+final class PawnTable {
+
+    /** Pawn keys of the entries. */
+    private final long[] keys;
+
+    /** Scores of the entries, in centipawns for white. */
+    private final int[] scores;
+
+    /** Passed pawns of the entries, four words (white, black) each. */
+    private final long[] passed;
+
+    /** Mask selecting an entry index from a key. */
+    private final int mask;
+
+    /** Penalty for each extra pawn on a file. */
+    private final int doubled;
+
+    /** Penalty for a pawn without pawns on the files beside it. */
+    private final int isolated;
+
+    /** Bonus for a passed pawn, by rank from its own side. */
+    private final int[] passer;
+
+    /** Number of pawns on each file, indexed by side then file. */
+    private int[][] count = new int[2][0];
+
+    /** Lowest rank holding a pawn on each file, or the height. */
+    private int[][] lowest = new int[2][0];
+
+    /** Highest rank holding a pawn on each file, or -1. */
+    private int[][] highest = new int[2][0];
+
+    /**
+     * Create a table of 2^bits entries.
+     *
+     * @param bits       log2 of the number of entries
+     * @param doubledCp  penalty for each extra pawn on a file
+     * @param isolatedCp penalty for an isolated pawn
+     * @param passedCp   bonus for a passed pawn by rank
+     */
+    PawnTable(final int bits, final int doubledCp, final int isolatedCp,
+              final int[] passedCp) {
+        keys = new long[1 << bits];
+        scores = new int[1 << bits];
+        passed = new long[4 << bits];
+        mask = (1 << bits) - 1;
+        doubled = doubledCp;
+        isolated = isolatedCp;
+        passer = passedCp;
+        /* an empty table is right for the one key it holds, no pawns */
+    }
+
+    /**
+     * Find the entry for a board's pawns, scoring them if needed.
+     *
+     * @param b the board
+     * @return  entry index, for score() and the passed pawn lookups
+     */
+    int probe(final Board b) {
+        long key = b.getPawnKey();
+        int i = (int) key & mask;
+        if (keys[i] != key) {
+            fill(b, i);
+            keys[i] = key;
+        }
+        return i;
+    }
+
+    /**
+     * Get the pawn structure score of an entry.
+     *
+     * @param i entry index
+     * @return  the score, in centipawns for white
+     */
+    int score(final int i) {
+        return scores[i];
+    }
+
+    /**
+     * Get the low word of a side's passed pawns in an entry.
+     *
+     * @param i    entry index
+     * @param side the side
+     * @return     set of squares with passed pawns
+     */
+    long passedLow(final int i, final Piece.Side side) {
+        return passed[i * 4 + side.ordinal() * 2];
+    }
+
+    /**
+     * Get the high word of a side's passed pawns in an entry.
+     *
+     * @param i    entry index
+     * @param side the side
+     * @return     set of squares with passed pawns
+     */
+    long passedHigh(final int i, final Piece.Side side) {
+        return passed[i * 4 + side.ordinal() * 2 + 1];
+    }
+
+    /**
+     * Score a board's pawns into an entry.
+     *
+     * @param b the board
+     * @param i entry index
+     */
+    private void fill(final Board b, final int i) {
+        int w = b.getWidth();
+        int h = b.getHeight();
+        if (count[0].length != w) {
+            count = new int[2][w];
+            lowest = new int[2][w];
+            highest = new int[2][w];
+        }
+        for (int s = 0; s < 2; s++) {
+            Arrays.fill(count[s], 0);
+            Arrays.fill(lowest[s], h);
+            Arrays.fill(highest[s], -1);
+        }
+        for (Piece.Side side : Piece.Side.values()) {
+            int s = side.ordinal();
+            for (int n = 0; n < b.getPieceCount(side); n++) {
+                int sq = b.getPieceSquare(side, n);
+                if (b.getPiece(sq).getType() == Piece.PAWN) {
+                    int x = sq % w;
+                    int y = sq / w;
+                    count[s][x]++;
+                    lowest[s][x] = Math.min(lowest[s][x], y);
+                    highest[s][x] = Math.max(highest[s][x], y);
+                }
+            }
+        }
+
+        int score = 0;
+        for (Piece.Side side : Piece.Side.values()) {
+            int s = side.ordinal();
+            int e = 1 - s;
+            int value = 0;
+            long passedLo = 0;
+            long passedHi = 0;
+            for (int n = 0; n < b.getPieceCount(side); n++) {
+                int sq = b.getPieceSquare(side, n);
+                if (b.getPiece(sq).getType() != Piece.PAWN) {
+                    continue;
+                }
+                int x = sq % w;
+                int y = sq / w;
+                boolean alone = true;
+                boolean free = true;
+                for (int f = Math.max(x - 1, 0); f <= Math.min(x + 1, w - 1);
+                     f++) {
+                    if (f != x && count[s][f] > 0) {
+                        alone = false;
+                    }
+                    /* an enemy pawn ahead on this file or beside it */
+                    if (side == Piece.Side.WHITE ? highest[e][f] > y
+                                                 : lowest[e][f] < y) {
+                        free = false;
+                    }
+                }
+                if (alone) {
+                    value -= isolated;
+                }
+                if (free && passer.length > 0) {
+                    int rank = side == Piece.Side.WHITE ? y : h - 1 - y;
+                    value += passer[Math.min(rank, passer.length - 1)];
+                    if (sq < Long.SIZE) {
+                        passedLo |= 1L << sq;
+                    } else {
+                        passedHi |= 1L << (sq - Long.SIZE);
+                    }
+                }
+            }
+            for (int x = 0; x < w; x++) {
+                value -= doubled * Math.max(count[s][x] - 1, 0);
+            }
+            score += value * side.value();
+            passed[i * 4 + s * 2] = passedLo;
+            passed[i * 4 + s * 2 + 1] = passedHi;
+        }
+        scores[i] = score;
+    }
+}
@@ -0,0 +1,137 @@
+package com.nullprogram.chess.ai;
+
+import com.nullprogram.chess.PackedMoveList;
+import java.util.Arrays;
+
+/**
+ * State private to one search thread: its move lists and pickers, its
+ * move ordering tables, its pawn table and its view of the cancellation
+ * token. Each worker
+ * thread keeps one of these across tasks and turns, so nothing here
+ * needs synchronization.
+ */
+final class SearchContext {
+
+    /** Poll the token once every this many nodes (minus one). */
+    private static final int POLL_MASK = 1023;
+
+    /** Starting number of plies. */
+    private static final int PLIES = 64;
+
+    /** Move lists, one per ply. */
+    private PackedMoveList[] lists = new PackedMoveList[0];
+
+    /** Move pickers, one per ply, each over that ply's move list. */
+    private MovePicker[] pickers = new MovePicker[0];
+
+    /** Move ordering tables. */
+    private final MoveOrder order;
+
+    /** Pawn structure cache. */
+    private final PawnTable pawns;
+
+    /** Token for the turn being searched. */
+    private Cancellation token;
+
+    /** Nodes visited so far. */
+    private int nodes;
+
+    /** Set once the token has been seen cancelled. */
+    private boolean stopped;
+
+    /**
+     * Create a search thread's state.
+     *
+     * @param pawnTable pawn structure cache for the thread
+     * @param values    value of each piece type, for move ordering
+     */
+    SearchContext(final PawnTable pawnTable, final int[] values) {
+        pawns = pawnTable;
+        order = new MoveOrder(values);
+    }
+
+    /**
+     * Get ready to search a root move or a subtree.
+     *
+     * @param cancel token for the search, which follows the turn's
+     */
+    void prepare(final Cancellation cancel) {
+        if (token == null || token.turn() != cancel.turn()) {
+            /* a new turn */
+            order.age();
+        }
+        token = cancel;
+        stopped = false;
+    }
+
+    /**
+     * Get the move list for the given ply.
+     *
+     * @param ply distance from the root
+     * @return    the list, which the caller should clear
+     */
+    PackedMoveList list(final int ply) {
+        if (ply >= lists.length) {
+            int old = lists.length;
+            lists = Arrays.copyOf(lists, Math.max(ply * 2, PLIES));
+            pickers = Arrays.copyOf(pickers, lists.length);
+            for (int i = old; i < lists.length; i++) {
+                lists[i] = new PackedMoveList();
+                pickers[i] = new MovePicker(order, lists[i], i);
+            }
+        }
+        return lists[ply];
+    }
+
+    /**
+     * Get the move picker for the given ply. It shares the ply's move
+     * list, so a node uses one or the other.
+     *
+     * @param ply distance from the root
+     * @return    the picker, which the caller should start
+     */
+    MovePicker picker(final int ply) {
+        list(ply);
+        return pickers[ply];
+    }
+
+    /**
+     * Get this thread's move ordering.
+     *
+     * @return move ordering tables
+     */
+    MoveOrder order() {
+        return order;
+    }
+
+    /**
+     * Get this thread's pawn structure cache.
+     *
+     * @return pawn table
+     */
+    PawnTable pawns() {
+        return pawns;
+    }
+
+    /**
+     * Count a node and, every so often, check the token.
+     *
+     * @return true if the search should unwind
+     */
+    boolean poll() {
+        if ((++nodes & POLL_MASK) == 0 && token.isCancelled()) {
+            stopped = true;
+        }
+        return stopped;
+    }
+
+    /**
+     * Determine if this search has been stopped. Results computed after
+     * this turns true are meaningless and must not be kept.
+     *
+     * @return true if stopped
+     */
+    boolean isStopped() {
+        return stopped;
+    }
+}
@@ -0,0 +1,174 @@
+package com.nullprogram.chess.ai;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Fixed-size transposition table shared by all search threads.
+ *
+ * Each entry is a single long, holding the top bits of the position
+ * key along with the data. There is no locking. Entries are read and
+ * written through an AtomicLongArray, since the language lets a plain
+ * long be torn between threads, so a thread only ever sees some
+ * position's complete entry, and the key bits tell whether it is for
+ * this position.
+ *
+ * <pre>
+ *  bits  0-23  score (centipawns, two's complement)
+ *  bits 24-37  best move, origin and destination squares only
+ *  bits 38-45  depth searched
+ *  bits 46-47  bound (EXACT, LOWER, UPPER)
+ *  bits 48-63  top 16 bits of the position key
+ * </pre>
+ *
+ * A real entry always has a bound, so an entry without one means "no
+ * entry".
+ */
+final class TranspositionTable {
+
+    /** No entry was found. */
+    static final long MISS = 0;
+
+    /** The score is exact. */
+    static final int EXACT = 1;
+
+    /** The score is a lower bound (the search failed high). */
+    static final int LOWER = 2;
+
+    /** The score is an upper bound (the search failed low). */
+    static final int UPPER = 3;
+
+    /** Width of the score field. */
+    private static final int SCORE_BITS = 24;
+
+    /** Mask for the score field. */
+    private static final long SCORE_MASK = (1L << SCORE_BITS) - 1;
+
+    /** Shift of the move field. */
+    private static final int MOVE_SHIFT = 24;
+
+    /** Mask for the move field: origin and destination squares. */
+    private static final int MOVE_MASK = (1 << 14) - 1;
+
+    /** Shift of the depth field. */
+    private static final int DEPTH_SHIFT = 38;
+
+    /** Mask for the depth field. */
+    private static final int DEPTH_MASK = 0xff;
+
+    /** Shift of the bound field. */
+    private static final int BOUND_SHIFT = 46;
+
+    /** Mask for the bound field. */
+    private static final int BOUND_MASK = 3;
+
+    /** Shift of the key field. */
+    private static final int KEY_SHIFT = 48;
+
+    /** Entries, one long each. */
+    private final AtomicLongArray table;
+
+    /** Mask selecting an entry index from a key. */
+    private final int mask;
+
+    /**
+     * Create a table of 2^bits entries.
+     *
+     * @param bits log2 of the number of entries
+     */
+    TranspositionTable(final int bits) {
+        table = new AtomicLongArray(1 << bits);
+        mask = (1 << bits) - 1;
+    }
+
+    /**
+     * Look up a position.
+     *
+     * @param key position key
+     * @return    the entry, or MISS
+     */
+    long probe(final long key) {
+        long data = table.get((int) key & mask);
+        if ((data >>> KEY_SHIFT) != (key >>> KEY_SHIFT) || bound(data) == 0) {
+            return MISS;
+        }
+        return data;
+    }
+
+    /**
+     * Store a search result. A result for the same position searched
+     * deeper is kept; anything else in the slot is replaced.
+     *
+     * @param key   position key
+     * @param move  best move found (packed), or PackedMove.NONE
+     * @param depth depth searched
+     * @param bound bound type of the score
+     * @param score the score, which must fit in 24 bits
+     */
+    void store(final long key, final int move, final int depth,
+               final int bound, final int score) {
+        int i = (int) key & mask;
+        long old = table.get(i);
+        if ((old >>> KEY_SHIFT) == (key >>> KEY_SHIFT) && bound(old) != 0 &&
+            depth(old) > depth) {
+            return;
+        }
+        table.lazySet(i, (score & SCORE_MASK) |
+                         ((long) (move & MOVE_MASK) << MOVE_SHIFT) |
+                         ((long) (depth & DEPTH_MASK) << DEPTH_SHIFT) |
+                         ((long) bound << BOUND_SHIFT) |
+                         (key >>> KEY_SHIFT << KEY_SHIFT));
+    }
+
+    /**
+     * Get the score from an entry.
+     *
+     * @param data the entry
+     * @return     the score
+     */
+    static int score(final long data) {
+        return (int) (data << (Long.SIZE - SCORE_BITS) >>
+                      (Long.SIZE - SCORE_BITS));
+    }
+
+    /**
+     * Get the best move from an entry, as origin and destination
+     * squares only. Compare against a packed move with sameMove().
+     *
+     * @param data the entry
+     * @return     the truncated move
+     */
+    static int move(final long data) {
+        return (int) (data >>> MOVE_SHIFT) & MOVE_MASK;
+    }
+
+    /**
+     * Determine if a packed move is the one an entry holds.
+     *
+     * @param data the entry
+     * @param move packed move
+     * @return     true if the move matches
+     */
+    static boolean sameMove(final long data, final int move) {
+        return move(data) == (move & MOVE_MASK);
+    }
+
+    /**
+     * Get the depth from an entry.
+     *
+     * @param data the entry
+     * @return     depth searched
+     */
+    static int depth(final long data) {
+        return (int) (data >>> DEPTH_SHIFT) & DEPTH_MASK;
+    }
+
+    /**
+     * Get the bound type from an entry.
+     *
+     * @param data the entry
+     * @return     EXACT, LOWER or UPPER
+     */
+    static int bound(final long data) {
+        return (int) (data >>> BOUND_SHIFT) & BOUND_MASK;
+    }
+}
@@ -1,8 +1,8 @@
 package com.nullprogram.chess.boards;
 
 import com.nullprogram.chess.Board;
+import com.nullprogram.chess.PackedMoveList;
 import com.nullprogram.chess.Piece;
-import com.nullprogram.chess.Position;
 import com.nullprogram.chess.pieces.Bishop;
 import com.nullprogram.chess.pieces.King;
 import com.nullprogram.chess.pieces.Knight;
@@ -106,42 +106,18 @@ public class StandardBoard extends Board {
      * @return     number of moves right now
      */
     public final int moveCount(final Piece.Side side) {
-        int count = 0;
-        for (int y = 0; y < getHeight(); y++) {
-            for (int x = 0; x < getWidth(); x++) {
-                Piece p = getPiece(new Position(x, y));
-                if ((p != null) && (p.getSide() == side)) {
-                    count += p.getMoves(true).size();
-                }
-            }
-        }
-        return count;
+        PackedMoveList list = new PackedMoveList();
+        generate(side, list, true);
+        return list.size();
     }
 
     @Override
     public final Boolean check(final Piece.Side side) {
-        Piece.Side attacker;
-        if (side == Piece.Side.WHITE) {
-            attacker = Piece.Side.BLACK;
-        } else {
-            attacker = Piece.Side.WHITE;
-        }
-        Position kingPos = findKing(side);
-        if (kingPos == null) {
+        int king = getKingSquare(side);
+        if (king < 0) {
             /* no king on board, but can happen in AI evaluation */
             return false;
         }
-        for (int y = 0; y < getHeight(); y++) {
-            for (int x = 0; x < getWidth(); x++) {
-                Piece p = getPiece(new Position(x, y));
-                if ((p != null) &&
-                    (p.getSide() == attacker) &&
-                    p.getMoves(false).containsDest(kingPos)) {
-
-                    return true;
-                }
-            }
-        }
-        return false;
+        return isAttacked(king, Piece.opposite(side));
     }
 }
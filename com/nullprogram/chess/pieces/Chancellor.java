@@ -1,6 +1,6 @@
 package com.nullprogram.chess.pieces;
 
-import com.nullprogram.chess.MoveList;
+import com.nullprogram.chess.PackedMoveList;
 import com.nullprogram.chess.Piece;
 
 /**
@@ -24,11 +24,10 @@ public class Chancellor extends Piece {
     }
 
     @Override
-    public final MoveList getMoves(final boolean check) {
-        MoveList list = new MoveList(getBoard(), check);
+    public final void generate(final PackedMoveList list,
+                               final boolean check) {
         /* Take advantage of the Rook and Knight implementations. */
-        list = Rook.getMoves(this, list);
-        list = Knight.getMoves(this, list);
-        return list;
+        Rook.generate(this, list);
+        Knight.generate(this, list);
     }
 }
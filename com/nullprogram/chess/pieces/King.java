@@ -1,9 +1,10 @@
 package com.nullprogram.chess.pieces;
 
-import com.nullprogram.chess.Move;
-import com.nullprogram.chess.MoveList;
+import com.nullprogram.chess.Board;
+import com.nullprogram.chess.Geometry;
+import com.nullprogram.chess.PackedMove;
+import com.nullprogram.chess.PackedMoveList;
 import com.nullprogram.chess.Piece;
-import com.nullprogram.chess.Position;
 
 /**
  * The Chess king.
@@ -16,12 +17,6 @@ public class King extends Piece {
     /** Serialization identifier. */
     private static final long serialVersionUID = 450219131L;
 
-    /** List of enemy moves (cahced). */
-    private MoveList enemy;
-
-    /** Cache the check check. */
-    private Boolean inCheck;
-
     /**
      * Create a new king on the given side.
      *
@@ -32,112 +27,71 @@ public class King extends Piece {
     }
 
     @Override
-    public final MoveList getMoves(final boolean check) {
-        MoveList list = new MoveList(getBoard(), check);
-        Position pos = getPosition();
-        for (int y = -1; y <= 1; y++) {
-            for (int x = -1; x <= 1; x++) {
-                if (x != 0 || y != 0) {
-                    list.addCapture(new Move(pos, new Position(pos, x, y)));
-                }
-            }
-        }
+    public final void generate(final PackedMoveList list,
+                               final boolean check) {
+        Board board = getBoard();
+        Geometry g = board.getGeometry();
+        int sq = board.square(getPosition());
+        board.addTargets(list, sq,
+                         g.kingLow(sq) & ~board.getOccupied(getSide()),
+                         g.kingHigh(sq) & ~board.getOccupiedHigh(getSide()));
 
         /* check for castling */
-        enemy = null;
-        inCheck = null;
-        if (check && !moved()) {
-            Move left = castle(-1);
-            if (left != null) {
-                list.add(left);
-            }
-            Move right = castle(1);
-            if (right != null) {
-                list.add(right);
-            }
+        if (check && !moved() &&
+            !board.isAttacked(sq, opposite(getSide()))) {
+
+            castle(list, sq, -1);
+            castle(list, sq, 1);
         }
-        return list;
     }
 
     /**
-     * Try to create a castle move in the given direction.
+     * Try to add a castle move in the given direction.
      *
-     * @param dir direction to check
-     * @return the move, or null
+     * @param list list to be appended to
+     * @param sq   square of this king
+     * @param dir  direction to check
      */
-    private Move castle(final int dir) {
-        int dist = getBoard().getWidth() / 2 - 2;
-        Position pos = getPosition();
+    private void castle(final PackedMoveList list, final int sq,
+                        final int dir) {
+        Board board = getBoard();
+        int dist = board.getWidth() / 2 - 2;
+        int row = sq - sq % board.getWidth();
 
         int max;
         if (dir < 0) {
             max = 0;
         } else {
-            max = getBoard().getWidth() - 1;
+            max = board.getWidth() - 1;
         }
 
-        Position rookPos = new Position(max, pos.getY());
-        Piece rook = getBoard().getPiece(rookPos);
+        Piece rook = board.getPiece(row + max);
         if (rook == null || rook.moved()) {
-            return null;
+            return;
         }
 
-        if (emptyRow(getPosition(), dir, max) && !inCheck()) {
-            /* generate the move */
-            Position kpos = new Position(pos, dir * dist, 0);
-            Move kingDest = new Move(pos, kpos);
-            Position rpos = new Position(pos, dir * dist - dir, 0);
-            Move rookDest = new Move(rookPos, rpos);
-            kingDest.setNext(rookDest);
-            return kingDest;
+        if (emptyRow(sq, row + max, dir)) {
+            list.add(PackedMove.create(sq, sq + dir * dist, this, -1,
+                                       PackedMove.CASTLE, 0));
         }
-        return null;
     }
 
     /**
      * Check for an empty, unthreatened castling row.
      *
-     * @param start the starting position
-     * @param dir direction to check
-     * @param max maximum column for the board
+     * @param start the starting square
+     * @param end   square of the rook at the end of the row
+     * @param dir   direction to check
      * @return true if row is safe
      */
-    private boolean emptyRow(final Position start, final int dir,
-                             final int max) {
-        for (int i = start.getX() + dir; i != max; i += dir) {
-            Position pos = new Position(i, start.getY());
-            if (getBoard().getPiece(pos) != null ||
-                enemyMoves().containsDest(pos)) {
-
+    private boolean emptyRow(final int start, final int end, final int dir) {
+        Board board = getBoard();
+        Side enemy = opposite(getSide());
+        for (int sq = start + dir; sq != end; sq += dir) {
+            if (board.getPiece(sq) != null || board.isAttacked(sq, enemy)) {
                 return false;
             }
         }
         return true;
     }
-
-    /**
-     * Cache of enemy moves.
-     *
-     * @return list of enemy moves
-     */
-    private MoveList enemyMoves() {
-        if (enemy != null) {
-            return enemy;
-        }
-        enemy = getBoard().allMoves(opposite(getSide()), false);
-        return enemy;
-    }
-
-    /**
-     * Cache of check check.
-     *
-     * @return true if king is in check
-     */
-    private boolean inCheck() {
-        if (inCheck != null) {
-            return inCheck;
-        }
-        inCheck = getBoard().check(getSide());
-        return inCheck;
-    }
 }
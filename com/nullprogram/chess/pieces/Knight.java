@@ -1,9 +1,9 @@
 package com.nullprogram.chess.pieces;
 
-import com.nullprogram.chess.Move;
-import com.nullprogram.chess.MoveList;
+import com.nullprogram.chess.Board;
+import com.nullprogram.chess.Geometry;
+import com.nullprogram.chess.PackedMoveList;
 import com.nullprogram.chess.Piece;
-import com.nullprogram.chess.Position;
 
 /**
  * The Chess knight.
@@ -16,16 +16,6 @@ public class Knight extends Piece {
     /** Serialization identifier. */
     private static final long serialVersionUID = -524621034L;
 
-    /**
-     * Short segment of movement.
-     */
-    static final int NEAR = 1;
-
-    /**
-     * Long segment of movement.
-     */
-    static final int FAR = 2;
-
     /**
      * Create a new knight on the given side.
      *
@@ -36,32 +26,26 @@ public class Knight extends Piece {
     }
 
     @Override
-    public final MoveList getMoves(final boolean check) {
-        MoveList list = new MoveList(getBoard(), check);
-        list = getMoves(this, list);
-        return list;
+    public final void generate(final PackedMoveList list,
+                               final boolean check) {
+        generate(this, list);
     }
 
     /**
-     * Determine knight moves for given situation.
+     * Append packed knight moves for given situation.
      *
      * This method is here for the purposes of reuse.
      *
      * @param p     the piece being tested
      * @param list  list to be appended to
-     * @return      the modified list
      */
-    public static MoveList getMoves(final Piece p,
-                                    final MoveList list) {
-        Position pos = p.getPosition();
-        list.addCapture(new Move(pos, new Position(pos,  NEAR,  FAR)));
-        list.addCapture(new Move(pos, new Position(pos,  FAR,  NEAR)));
-        list.addCapture(new Move(pos, new Position(pos, -FAR,  NEAR)));
-        list.addCapture(new Move(pos, new Position(pos, -FAR, -NEAR)));
-        list.addCapture(new Move(pos, new Position(pos,  FAR, -NEAR)));
-        list.addCapture(new Move(pos, new Position(pos,  NEAR, -FAR)));
-        list.addCapture(new Move(pos, new Position(pos, -NEAR, -FAR)));
-        list.addCapture(new Move(pos, new Position(pos, -NEAR,  FAR)));
-        return list;
+    public static void generate(final Piece p, final PackedMoveList list) {
+        Board board = p.getBoard();
+        Geometry g = board.getGeometry();
+        int sq = board.square(p.getPosition());
+        Piece.Side side = p.getSide();
+        board.addTargets(list, sq,
+                         g.knightLow(sq) & ~board.getOccupied(side),
+                         g.knightHigh(sq) & ~board.getOccupiedHigh(side));
     }
 }
@@ -1,10 +1,10 @@
 package com.nullprogram.chess.pieces;
 
 import com.nullprogram.chess.Board;
-import com.nullprogram.chess.Move;
-import com.nullprogram.chess.MoveList;
+import com.nullprogram.chess.Geometry;
+import com.nullprogram.chess.PackedMove;
+import com.nullprogram.chess.PackedMoveList;
 import com.nullprogram.chess.Piece;
-import com.nullprogram.chess.Position;
 
 /**
  * The Chess pawn.
@@ -27,68 +27,82 @@ public class Pawn extends Piece {
     }
 
     @Override
-    public final MoveList getMoves(final boolean check) {
-        MoveList list = new MoveList(getBoard(), check);
-        Position pos = getPosition();
+    public final void generate(final PackedMoveList list,
+                               final boolean check) {
         Board board = getBoard();
+        Geometry g = board.getGeometry();
+        int width = board.getWidth();
+        int sq = board.square(getPosition());
+        int y = sq / width;
         int dir = direction();
-        Position dest = new Position(pos, 0, 1 * dir);
-        Move first = new Move(pos, dest);
-        addUpgrade(first);
-        if (list.addMove(first) && !moved()) {
-            list.addMove(new Move(pos, new Position(pos, 0, 2 * dir)));
+        int ahead = sq + dir * width;
+        if (onBoard(y + dir) && board.getPiece(ahead) == null) {
+
+            add(list, sq, ahead, -1);
+            int twoAhead = ahead + dir * width;
+            if (!moved() && onBoard(y + 2 * dir) &&
+                board.getPiece(twoAhead) == null) {
+
+                list.add(PackedMove.create(sq, twoAhead, this, -1,
+                                           PackedMove.DOUBLE_PUSH, 0));
+            }
+        }
+
+        /* captures come straight from the pawn attack table */
+        Side enemy = opposite(getSide());
+        long lo = g.pawnLow(getSide(), sq) & board.getOccupied(enemy);
+        long hi = g.pawnHigh(getSide(), sq) & board.getOccupiedHigh(enemy);
+        for (; lo != 0; lo &= lo - 1) {
+            int to = Long.numberOfTrailingZeros(lo);
+            add(list, sq, to, board.getPiece(to).getType());
+        }
+        for (; hi != 0; hi &= hi - 1) {
+            int to = Long.SIZE + Long.numberOfTrailingZeros(hi);
+            add(list, sq, to, board.getPiece(to).getType());
         }
-        Move captureLeft = new Move(pos, new Position(pos, -1, 1 * dir));
-        addUpgrade(captureLeft);
-        list.addCaptureOnly(captureLeft);
-        Move captureRight = new Move(pos, new Position(pos,  1, 1 * dir));
-        addUpgrade(captureRight);
-        list.addCaptureOnly(captureRight);
 
-        /* check for en passant */
-        Move last = board.last();
-        if (last != null) {
-            Position left = new Position(pos, -1, 0);
-            Position right = new Position(pos, 1, 0);
-            Position lOrigin = last.getOrigin();
-            Position lDest = last.getDest();
-            if (left.equals(lDest) &&
-                (lOrigin.getX() == lDest.getX()) &&
-                (lOrigin.getY() == lDest.getY() + dir * 2) &&
-                (board.getPiece(left) instanceof Pawn)) {
+        /* check for en passant: an enemy pawn just passed beside us */
+        int last = board.lastMove();
+        if (PackedMove.flag(last) == PackedMove.DOUBLE_PUSH &&
+            PackedMove.side(last) == enemy) {
 
-                /* en passant to the left */
-                Move passant = new Move(pos, new Position(pos, -1, dir));
-                passant.setNext(new Move(left, null));
-                list.addMove(passant);
-            } else if (right.equals(lDest) &&
-                       (lOrigin.getX() == lDest.getX()) &&
-                       (lOrigin.getY() == lDest.getY() + dir * 2) &&
-                       (board.getPiece(right) instanceof Pawn)) {
+            int passed = PackedMove.to(last);
+            if (passed / width == y &&
+                Math.abs(passed % width - sq % width) == 1) {
 
-                /* en passant to the right */
-                Move passant = new Move(pos, new Position(pos, 1, dir));
-                passant.setNext(new Move(right, null));
-                list.addMove(passant);
+                list.add(PackedMove.create(sq, passed + dir * width, this,
+                                           PAWN, PackedMove.EN_PASSANT, 0));
             }
         }
-        return list;
     }
 
     /**
-     * Add the upgrade actions to the given move if needed.
+     * Add a single step move, promoting if it reaches the last row.
      *
-     * @param move the move to be modified
+     * @param list     list to be appended to
+     * @param from     origin square
+     * @param to       destination square
+     * @param captured type of the captured piece, or -1
      */
-    private void addUpgrade(final Move move) {
-        if (move.getDest().getY() != upgradeRow()) {
-            return;
+    private void add(final PackedMoveList list, final int from, final int to,
+                     final int captured) {
+        if (to / getBoard().getWidth() == upgradeRow()) {
+            list.add(PackedMove.create(from, to, this, captured,
+                                       PackedMove.PROMOTION, QUEEN));
+        } else {
+            list.add(PackedMove.create(from, to, this, captured,
+                                       PackedMove.NORMAL, 0));
         }
-        move.setNext(new Move(move.getDest(), null)); // remove the pawn
-        Move upgrade = new Move(null, move.getDest());
-        upgrade.setReplacement("Queen");
-        upgrade.setReplacementSide(getSide());
-        move.getNext().setNext(upgrade);              // add a queen
+    }
+
+    /**
+     * Determine if a row index lies on the board.
+     *
+     * @param row the row index
+     * @return    true if the row exists
+     */
+    private boolean onBoard(final int row) {
+        return row >= 0 && row < getBoard().getHeight();
     }
 
     /**
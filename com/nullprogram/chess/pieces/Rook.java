@@ -1,9 +1,8 @@
 package com.nullprogram.chess.pieces;
 
-import com.nullprogram.chess.Move;
-import com.nullprogram.chess.MoveList;
+import com.nullprogram.chess.Board;
+import com.nullprogram.chess.PackedMoveList;
 import com.nullprogram.chess.Piece;
-import com.nullprogram.chess.Position;
 
 /**
  * The Chess rook.
@@ -26,73 +25,26 @@ public class Rook extends Piece {
     }
 
     @Override
-    public final MoveList getMoves(final boolean check) {
-        MoveList list = new MoveList(getBoard(), check);
-        list = getMoves(this, list);
-        return list;
+    public final void generate(final PackedMoveList list,
+                               final boolean check) {
+        generate(this, list);
     }
 
     /**
-     * Determine rook moves for given situation.
+     * Append packed rook moves for given situation.
      *
      * This method is here for the purposes of reuse.
      *
      * @param p     the piece being tested
      * @param list  list to be appended to
-     * @return      the modified list
      */
-    public static MoveList getMoves(final Piece p,
-                                    final MoveList list) {
-        /* Scan each direction and stop looking when we run into something. */
-        Position home = p.getPosition();
-        int x = home.getX();
-        int y = home.getY();
-        while (x >= 0) {
-            x--;
-            Position pos = new Position(x, y);
-            if (!list.addCapture(new Move(home, pos))) {
-                break;
-            }
-            if (!p.getBoard().isFree(pos)) {
-                break;
-            }
-        }
-        x = home.getX();
-        y = home.getY();
-        while (x < p.getBoard().getWidth()) {
-            x++;
-            Position pos = new Position(x, y);
-            if (!list.addCapture(new Move(home, pos))) {
-                break;
-            }
-            if (!p.getBoard().isFree(pos)) {
-                break;
-            }
-        }
-        x = home.getX();
-        y = home.getY();
-        while (y >= 0) {
-            y--;
-            Position pos = new Position(x, y);
-            if (!list.addCapture(new Move(home, pos))) {
-                break;
-            }
-            if (!p.getBoard().isFree(pos)) {
-                break;
-            }
-        }
-        x = home.getX();
-        y = home.getY();
-        while (y < p.getBoard().getHeight()) {
-            y++;
-            Position pos = new Position(x, y);
-            if (!list.addCapture(new Move(home, pos))) {
-                break;
-            }
-            if (!p.getBoard().isFree(pos)) {
-                break;
-            }
-        }
-        return list;
+    public static void generate(final Piece p, final PackedMoveList list) {
+        Board board = p.getBoard();
+        int sq = board.square(p.getPosition());
+        board.addTargets(list, sq,
+                         board.getRookAttacks(sq) &
+                         ~board.getOccupied(p.getSide()),
+                         board.getRookAttacksHigh(sq) &
+                         ~board.getOccupiedHigh(p.getSide()));
     }
 }